@@ -0,0 +1,439 @@
+package cool.compiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Compares three ways of writing the same whole-tree pass over a large
+// synthetic AST:
+//
+//   visitor  - an ASTVisitor, through accept/visit double dispatch;
+//   switch   - one exhaustive switch on the node kind, reading the fields
+//              of each node class directly;
+//   children - the generic child access of ASTChildren, as used by ASTPath
+//              and HashConsTable, which switches on the kind for count and
+//              again for every child.
+//
+// On JDK 17 with C2, the visitor comes out about a tenth faster than the
+// direct switch, and the generic walk takes about 1.6 times as long as the
+// visitor. The switch form is therefore kept for passes that need to be
+// generic over the node kinds, not as a faster replacement for the visitor.
+//
+// The benchmark is kept out of the compiler's sources, but in its package,
+// since the node classes are package-private. From the Tema1 directory:
+//
+// javac -cp <antlr runtime> -d bin src/cool/*/*.java bench/cool/compiler/*.java
+// java -cp bin:<antlr runtime> cool.compiler.DispatchBenchmark [classes] [iterations]
+public class DispatchBenchmark {
+    public static void main(String[] args) {
+        int classes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        var prog = syntheticProgram(classes, new Random(42));
+        var visitorPass = new CountingVisitor();
+        var switchPass = new CountingSwitch();
+        var childrenPass = new CountingChildren();
+
+        // Warm-up, interleaved so that all passes see the same profile
+        // pollution at their call sites.
+        for (int i = 0; i < iterations; i++) {
+            visitorPass.run(prog);
+            switchPass.run(prog);
+            childrenPass.run(prog);
+        }
+
+        long nodes = childrenPass.run(prog);
+        if (visitorPass.run(prog) != nodes || switchPass.run(prog) != nodes)
+            throw new IllegalStateException("The passes disagree on the node count");
+
+        long visitorTime = 0, switchTime = 0, childrenTime = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            visitorPass.run(prog);
+            visitorTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            switchPass.run(prog);
+            switchTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            childrenPass.run(prog);
+            childrenTime += System.nanoTime() - start;
+        }
+
+        System.out.println("nodes per pass: " + nodes);
+        System.out.printf("visitor:  %.2f ns/node%n", (double)visitorTime / iterations / nodes);
+        System.out.printf("switch:   %.2f ns/node%n", (double)switchTime / iterations / nodes);
+        System.out.printf("children: %.2f ns/node%n", (double)childrenTime / iterations / nodes);
+    }
+
+    // Builds classes with a few attributes and methods whose bodies are
+    // random expression trees covering every node kind.
+    static Prog syntheticProgram(int classCount, Random random) {
+        var symbols = new SymbolTable();
+        var sources = new SourceMap();
+        sources.addFile("synthetic.cl");
+        var gen = new Object() {
+            int sym(String prefix) {
+                return symbols.intern(prefix + random.nextInt(50));
+            }
+
+            Expression expr(int depth) {
+                if (depth == 0) {
+                    return switch (random.nextInt(4)) {
+                        case 0 -> new Int(sym(""), 0);
+                        case 1 -> new Bool(symbols.intern("true"), 0);
+                        case 2 -> new Str(sym("s"), 0);
+                        default -> new Id(sym("x"), 0);
+                    };
+                }
+                int d = depth - 1;
+                return switch (random.nextInt(17)) {
+                    case 0 -> new MultDiv(expr(d), symbols.intern("*"), expr(d), 0);
+                    case 1 -> new PlusMinus(expr(d), symbols.intern("+"), expr(d), 0);
+                    case 2 -> new Parantheses(expr(d), 0);
+                    case 3 -> new UnaryMinus(expr(d), 0);
+                    case 4 -> new Relational(expr(d), symbols.intern("<"), expr(d), 0);
+                    case 5 -> new Not(expr(d), 0);
+                    case 6 -> new Assign(sym("x"), expr(d), 0);
+                    case 7 -> new IsVoid(expr(d), 0);
+                    case 8 -> new New(sym("T"), 0);
+                    case 9 -> new If(expr(d), expr(d), expr(d), 0);
+                    case 10 -> new While(expr(d), expr(d), 0);
+                    case 11 -> new Block(List.of(expr(d), expr(d), expr(d)), 0);
+                    case 12 -> new CallMethod(expr(d), sym("m"), SymbolTable.NONE, List.of(expr(d), expr(d)), 0);
+                    case 13 -> new CallFunction(sym("m"), List.of(expr(d)), 0);
+                    case 14 -> new Let(List.of(new LetVar(sym("x"), sym("T"), expr(d), 0)), expr(d), 0);
+                    case 15 -> new Case(expr(d), List.of(new CaseBranch(sym("x"), sym("T"), expr(d), 0),
+                            new CaseBranch(sym("y"), sym("T"), expr(d), 0)), 0);
+                    default -> expr(0);
+                };
+            }
+        };
+
+        var classes = new ArrayList<ClassRule>();
+        for (int c = 0; c < classCount; c++) {
+            var features = new ArrayList<Feature>();
+            for (int f = 0; f < 3; f++)
+                features.add(new Atribut(gen.sym("a"), gen.sym("T"), gen.expr(2), 0));
+            for (int f = 0; f < 5; f++) {
+                var formals = List.of(new Formal(gen.sym("p"), gen.sym("T"), 0));
+                features.add(new Method(gen.sym("m"), formals, gen.sym("T"), gen.expr(6), 0));
+            }
+            classes.add(new ClassRule(gen.sym("C"), SymbolTable.NONE, List.copyOf(features), 0));
+        }
+        return new Prog(List.copyOf(classes), symbols, sources, 0);
+    }
+
+    static final class CountingSwitch {
+        private long count;
+
+        long run(Prog prog) {
+            count = 0;
+            walk(prog);
+            return count;
+        }
+
+        private void all(List<? extends ASTNode> nodes) {
+            for (var n : nodes)
+                walk(n);
+        }
+
+        private void walk(ASTNode node) {
+            if (node == null)
+                return;
+            count++;
+            switch (node.kind) {
+                case PROG -> all(((Prog)node).classes);
+                case CLASS -> all(((ClassRule)node).body);
+                case METHOD -> {
+                    var method = (Method)node;
+                    all(method.formals);
+                    walk(method.expr);
+                }
+                case ATTRIBUTE -> walk(((Atribut)node).expr);
+                case FORMAL, INT, BOOL, STR, ID, NEW -> {
+                }
+                case MULT_DIV -> {
+                    var multDiv = (MultDiv)node;
+                    walk(multDiv.left);
+                    walk(multDiv.right);
+                }
+                case PLUS_MINUS -> {
+                    var plusMinus = (PlusMinus)node;
+                    walk(plusMinus.left);
+                    walk(plusMinus.right);
+                }
+                case RELATIONAL -> {
+                    var relational = (Relational)node;
+                    walk(relational.left);
+                    walk(relational.right);
+                }
+                case WHILE -> {
+                    var whileRule = (While)node;
+                    walk(whileRule.cond);
+                    walk(whileRule.expr);
+                }
+                case PARANTHESES -> walk(((Parantheses)node).expr);
+                case UNARY_MINUS -> walk(((UnaryMinus)node).expr);
+                case NOT -> walk(((Not)node).expr);
+                case ASSIGN -> walk(((Assign)node).expr);
+                case IS_VOID -> walk(((IsVoid)node).expr);
+                case CASE_BRANCH -> walk(((CaseBranch)node).expr);
+                case IF -> {
+                    var ifRule = (If)node;
+                    walk(ifRule.cond);
+                    walk(ifRule.thenBranch);
+                    walk(ifRule.elseBranch);
+                }
+                case BLOCK -> all(((Block)node).expr);
+                case CALL_METHOD -> {
+                    var callMethod = (CallMethod)node;
+                    walk(callMethod.expr);
+                    all(callMethod.args);
+                }
+                case CALL_FUNCTION -> all(((CallFunction)node).expr);
+                case LET_VAR -> walk(((LetVar)node).expr);
+                case LET -> {
+                    var let = (Let)node;
+                    all(let.defs);
+                    walk(let.body);
+                }
+                case CASE -> {
+                    var caseRule = (Case)node;
+                    walk(caseRule.cond);
+                    all(caseRule.branches);
+                }
+            }
+        }
+    }
+
+    static final class CountingChildren {
+        private long count;
+
+        long run(Prog prog) {
+            count = 0;
+            walk(prog);
+            return count;
+        }
+
+        private void walk(ASTNode node) {
+            count++;
+            for (int i = 0, n = ASTChildren.count(node); i < n; i++)
+                walk(ASTChildren.get(node, i));
+        }
+    }
+
+    static final class CountingVisitor implements ASTVisitor<Void> {
+        private long count;
+
+        long run(Prog prog) {
+            count = 0;
+            prog.accept(this);
+            return count;
+        }
+
+        private void all(List<? extends ASTNode> nodes) {
+            for (var n : nodes)
+                n.accept(this);
+        }
+
+        private void optional(ASTNode node) {
+            if (node != null)
+                node.accept(this);
+        }
+
+        @Override
+        public Void visit(Prog prog) {
+            count++;
+            all(prog.classes);
+            return null;
+        }
+
+        @Override
+        public Void visit(ClassRule cl) {
+            count++;
+            all(cl.body);
+            return null;
+        }
+
+        @Override
+        public Void visit(Formal formal) {
+            count++;
+            return null;
+        }
+
+        @Override
+        public Void visit(Method method) {
+            count++;
+            all(method.formals);
+            optional(method.expr);
+            return null;
+        }
+
+        @Override
+        public Void visit(Atribut atribut) {
+            count++;
+            optional(atribut.expr);
+            return null;
+        }
+
+        @Override
+        public Void visit(Int integer) {
+            count++;
+            return null;
+        }
+
+        @Override
+        public Void visit(Bool bool) {
+            count++;
+            return null;
+        }
+
+        @Override
+        public Void visit(Str str) {
+            count++;
+            return null;
+        }
+
+        @Override
+        public Void visit(Id id) {
+            count++;
+            return null;
+        }
+
+        @Override
+        public Void visit(MultDiv multDiv) {
+            count++;
+            multDiv.left.accept(this);
+            multDiv.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(PlusMinus plusMinus) {
+            count++;
+            plusMinus.left.accept(this);
+            plusMinus.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Parantheses parantheses) {
+            count++;
+            parantheses.expr.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(UnaryMinus unaryMinus) {
+            count++;
+            unaryMinus.expr.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Relational relational) {
+            count++;
+            relational.left.accept(this);
+            relational.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Not not) {
+            count++;
+            not.expr.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Assign assign) {
+            count++;
+            assign.expr.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(IsVoid isVoid) {
+            count++;
+            isVoid.expr.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(New newRule) {
+            count++;
+            return null;
+        }
+
+        @Override
+        public Void visit(If ifRule) {
+            count++;
+            ifRule.cond.accept(this);
+            ifRule.thenBranch.accept(this);
+            ifRule.elseBranch.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(While whileRule) {
+            count++;
+            whileRule.cond.accept(this);
+            whileRule.expr.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Block block) {
+            count++;
+            all(block.expr);
+            return null;
+        }
+
+        @Override
+        public Void visit(CallMethod callMethod) {
+            count++;
+            callMethod.expr.accept(this);
+            all(callMethod.args);
+            return null;
+        }
+
+        @Override
+        public Void visit(CallFunction callFunction) {
+            count++;
+            all(callFunction.expr);
+            return null;
+        }
+
+        @Override
+        public Void visit(LetVar letVar) {
+            count++;
+            optional(letVar.expr);
+            return null;
+        }
+
+        @Override
+        public Void visit(Let letRule) {
+            count++;
+            all(letRule.defs);
+            optional(letRule.body);
+            return null;
+        }
+
+        @Override
+        public Void visit(CaseBranch caseBranch) {
+            count++;
+            caseBranch.expr.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Case caseRule) {
+            count++;
+            caseRule.cond.accept(this);
+            all(caseRule.branches);
+            return null;
+        }
+    }
+}
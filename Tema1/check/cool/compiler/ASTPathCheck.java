@@ -0,0 +1,114 @@
+package cool.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Checks ASTChildren and ASTPath on the ASTs of the tests of tests/tema1
+// that have no errors:
+//
+// - bounds: on every node, get and withChild throw IndexOutOfBoundsException
+//   for the indexes -1 and count.
+// - path copy: every expression is replaced in turn by a new literal. Each
+//   ancestor in the new tree must be a copy that still shares all its other
+//   children with the original, the literal must be at the path, and the
+//   original tree must print as before. Replacing a node by itself must
+//   return the same root.
+//
+// Like DispatchBenchmark, it is kept out of the compiler's sources, in its
+// package. From the Tema1 directory:
+//
+// javac -cp <antlr runtime> -d bin src/cool/*/*.java check/cool/compiler/*.java
+// java -cp bin:<antlr runtime> cool.compiler.ASTPathCheck
+public class ASTPathCheck {
+    public static void main(String[] args) throws IOException {
+        var check = new Check();
+        for (var test : Check.tests()) {
+            var root = Check.parse(test);
+            if (root == null)
+                continue;
+            var paths = new ArrayList<int[]>();
+            collect(root, new int[0], paths);
+            check.report(test, "bounds", bounds(root, paths));
+            check.report(test, "path copy", pathCopy(root, paths));
+        }
+        check.finish();
+    }
+
+    private static void collect(ASTNode node, int[] path, List<int[]> paths) {
+        paths.add(path);
+        for (int i = 0; i < ASTChildren.count(node); i++) {
+            var child = Arrays.copyOf(path, path.length + 1);
+            child[path.length] = i;
+            collect(ASTChildren.get(node, i), child, paths);
+        }
+    }
+
+    private static String bounds(ASTNode root, List<int[]> paths) {
+        for (var path : paths) {
+            var node = ASTPath.of(path).get(root);
+            int count = ASTChildren.count(node);
+            for (int index : new int[] { -1, count }) {
+                if (!outOfBounds(() -> ASTChildren.get(node, index)))
+                    return "get(" + index + ") on " + node.kind + " with " + count + " children";
+                // A null child passes every cast, so only the index can fail.
+                if (!outOfBounds(() -> ASTChildren.withChild(node, index, null)))
+                    return "withChild(" + index + ") on " + node.kind + " with " + count + " children";
+            }
+        }
+        return null;
+    }
+
+    private static boolean outOfBounds(Runnable access) {
+        try {
+            access.run();
+            return false;
+        } catch (IndexOutOfBoundsException e) {
+            return true;
+        }
+    }
+
+    private static String pathCopy(Prog root, List<int[]> paths) {
+        var before = print(root);
+        for (var indexes : paths) {
+            var path = ASTPath.of(indexes);
+            var node = path.get(root);
+            if (!(node instanceof Expression))
+                continue;
+            if (path.replace(root, node) != root)
+                return "replacing the node at " + Arrays.toString(indexes) + " by itself copied the tree";
+
+            var literal = new Int(0, node.pos);
+            var updated = path.replace(root, literal);
+            ASTNode original = root, copy = updated;
+            for (int depth = 0; depth < indexes.length; depth++) {
+                int count = ASTChildren.count(original);
+                if (copy == original || copy.kind != original.kind || ASTChildren.count(copy) != count)
+                    return "the ancestor at depth " + depth + " of " + Arrays.toString(indexes) + " was not copied";
+                for (int i = 0; i < count; i++)
+                    if (i != indexes[depth] && ASTChildren.get(copy, i) != ASTChildren.get(original, i))
+                        return "child " + i + " at depth " + depth + " of " + Arrays.toString(indexes)
+                                + " is not shared";
+                original = ASTChildren.get(original, indexes[depth]);
+                copy = ASTChildren.get(copy, indexes[depth]);
+            }
+            if (copy != literal)
+                return "the replacement is not at " + Arrays.toString(indexes);
+        }
+        if (!print(root).equals(before))
+            return "the original tree changed";
+        return null;
+    }
+
+    private static String print(Prog root) {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new PrintStream(bytes, false, StandardCharsets.UTF_8)) {
+            new ASTPrinter(out).print(root);
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,45 @@
+package cool.compiler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+
+// Results of the checks of one checker, printed in the layout of
+// cool.tester.ModeTester, and the inputs they share.
+final class Check {
+    private int passed, failed;
+
+    // A null problem means the check passed.
+    void report(Path test, String what, String problem) {
+        System.out.printf("%-30s %-20s -> ", test.getFileName(), what);
+        if (problem == null) {
+            System.out.println("OK");
+            passed++;
+        } else {
+            System.out.println("Failed: " + problem);
+            failed++;
+        }
+    }
+
+    // Prints the totals, and exits with status 1 if a check failed.
+    void finish() {
+        System.out.println("Passed: " + passed + "/" + (passed + failed));
+        if (failed > 0)
+            System.exit(1);
+    }
+
+    // The inputs of Tester1.
+    static List<Path> tests() throws IOException {
+        try (var files = Files.list(Paths.get("tests/tema1"))) {
+            return files.filter(file -> file.toString().endsWith(".cl")).sorted().toList();
+        }
+    }
+
+    // The AST of a source file, or null if it has errors.
+    static Prog parse(Path file) throws IOException {
+        var text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        return (Prog)new CoolCompiler().compile(Map.of(file.getFileName().toString(), text)).ast();
+    }
+}
@@ -0,0 +1,374 @@
+package cool.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Checks FlatAST on the ASTs of the tests of tests/tema1 that have no
+// errors:
+//
+// - round trip: the encoded tree is well formed, and toNode gives back a
+//   tree that prints as the original.
+// - cursor: next() visits the nodes 0 to size - 1 in order, and moving
+//   explicitly between first children, siblings and parents follows the
+//   children of the original tree.
+// - visitor: accept walks the same nodes, in the same order.
+// - well-formed: isWellFormed rejects the encoded arrays after each of a
+//   few kinds of damage to its structure or its symbols (see damaged).
+//
+// From the Tema1 directory, like ASTPathCheck:
+//
+// javac -cp <antlr runtime> -d bin src/cool/*/*.java check/cool/compiler/*.java
+// java -cp bin:<antlr runtime> cool.compiler.FlatASTCheck
+public class FlatASTCheck {
+    public static void main(String[] args) throws IOException {
+        var check = new Check();
+        for (var test : Check.tests()) {
+            var root = Check.parse(test);
+            if (root == null)
+                continue;
+            var flat = FlatAST.encode(root);
+            check.report(test, "round trip", roundTrip(root, flat));
+            check.report(test, "cursor", cursor(root, flat));
+            check.report(test, "visitor", visitor(flat));
+            check.report(test, "well-formed", wellFormed(flat));
+        }
+        check.finish();
+    }
+
+    private static String roundTrip(Prog root, FlatAST flat) {
+        if (!flat.isWellFormed())
+            return "the encoded tree is not well formed";
+        if (!print(root).equals(print((Prog)flat.toNode(flat.root()))))
+            return "the decoded tree prints differently";
+        return null;
+    }
+
+    private static String cursor(Prog root, FlatAST flat) {
+        var cursor = flat.cursor();
+        int expected = 0;
+        do {
+            if (cursor.node() != expected++)
+                return "next() reached node " + cursor.node() + " instead of " + (expected - 1);
+        } while (cursor.next());
+        if (expected != flat.size())
+            return "next() stopped after " + expected + " of " + flat.size() + " nodes";
+
+        cursor.reset();
+        return follow(cursor, root);
+    }
+
+    // Walks the subtree of the node under the cursor alongside the same
+    // subtree of the original tree, and leaves the cursor where it started.
+    private static String follow(FlatAST.Cursor cursor, ASTNode node) {
+        if (cursor.kind() != node.kind || cursor.pos() != node.pos)
+            return "node " + cursor.node() + " is " + cursor.kind() + " instead of " + node.kind;
+        int start = cursor.node(), depth = cursor.depth();
+        int count = ASTChildren.count(node);
+        if (cursor.toFirstChild() != (count > 0))
+            return "toFirstChild() on node " + start + " with " + count + " children";
+        for (int i = 0; i < count; i++) {
+            var problem = follow(cursor, ASTChildren.get(node, i));
+            if (problem != null)
+                return problem;
+            if (cursor.toNextSibling() != (i < count - 1))
+                return "toNextSibling() after child " + i + " of node " + start;
+        }
+        if (count > 0 && (!cursor.toParent() || cursor.node() != start || cursor.depth() != depth))
+            return "toParent() did not return to node " + start;
+        return null;
+    }
+
+    private static String visitor(FlatAST flat) {
+        var recorder = new Recorder();
+        flat.accept(recorder);
+        if (recorder.kinds.size() != flat.size())
+            return "visited " + recorder.kinds.size() + " of " + flat.size() + " nodes";
+        for (int node = 0; node < flat.size(); node++)
+            if (recorder.kinds.get(node) != flat.kind(node) || recorder.positions.get(node) != flat.pos(node))
+                return "visited " + recorder.kinds.get(node) + " instead of node " + node;
+        return null;
+    }
+
+    private static String wellFormed(FlatAST flat) {
+        if (!flat.isWellFormed())
+            return "the encoded tree is rejected";
+        var columns = new Columns(flat);
+        if (columns.size() < 2)
+            return null;
+        for (var damage : damaged(flat, columns))
+            if (damage.tree.isWellFormed())
+                return "accepted " + damage.description;
+        return null;
+    }
+
+    private record Damage(String description, FlatAST tree) {
+    }
+
+    // Copies of the arrays with one thing wrong, each of which makes the
+    // tree impossible to materialize.
+    private static List<Damage> damaged(FlatAST flat, Columns original) {
+        int last = original.size() - 1;
+        var damages = new ArrayList<Damage>();
+
+        var empty = new Columns(original, 0);
+        damages.add(new Damage("an empty tree", empty.tree(flat)));
+
+        var truncated = new Columns(original, last);
+        damages.add(new Damage("a child past the end", truncated.tree(flat)));
+
+        var extra = new Columns(original, original.size() + 1);
+        extra.kinds[last + 1] = (byte)NodeKind.INT.ordinal();
+        extra.firstChild[last + 1] = extra.nextSibling[last + 1] = FlatAST.NO_NODE;
+        damages.add(new Damage("an unreachable node", extra.tree(flat)));
+
+        var cycle = original.copy();
+        cycle.firstChild[last] = flat.root();
+        damages.add(new Damage("a cycle", cycle.tree(flat)));
+
+        var badKind = original.copy();
+        badKind.kinds[last] = (byte)NodeKind.VALUES.length;
+        damages.add(new Damage("an unknown kind", badKind.tree(flat)));
+
+        var root = original.copy();
+        root.kinds[flat.root()] = (byte)NodeKind.CLASS.ordinal();
+        damages.add(new Damage("a root that is not a program", root.tree(flat)));
+
+        var nameless = original.copy();
+        nameless.symbols[flat.firstChild(flat.root())] = SymbolTable.NONE;
+        damages.add(new Damage("a class without a name", nameless.tree(flat)));
+
+        var unknownSymbol = original.copy();
+        unknownSymbol.types[last] = flat.symbolTable.size();
+        damages.add(new Damage("an unknown symbol id", unknownSymbol.tree(flat)));
+
+        // The first node whose number of children no longer fits once its
+        // kind changes, which keeps the preorder intact.
+        for (int node = 0; node < original.size(); node++) {
+            var kind = flat.kind(node);
+            NodeKind other = switch (kind) {
+                case MULT_DIV, PLUS_MINUS, RELATIONAL, WHILE -> NodeKind.NOT;
+                case PARANTHESES, UNARY_MINUS, NOT, ASSIGN, IS_VOID, IF -> NodeKind.MULT_DIV;
+                case CLASS -> NodeKind.FORMAL;
+                default -> null;
+            };
+            if (other == null || (kind == NodeKind.CLASS && flat.firstChild(node) == FlatAST.NO_NODE))
+                continue;
+            var arity = original.copy();
+            arity.kinds[node] = (byte)other.ordinal();
+            damages.add(new Damage(kind + " children under " + other, arity.tree(flat)));
+            break;
+        }
+        return damages;
+    }
+
+    // The arrays of a FlatAST, which it does not expose, rebuilt from its
+    // accessors.
+    private static final class Columns {
+        final byte[] kinds;
+        final int[] firstChild, nextSibling, symbols, types;
+        final long[] positions;
+
+        Columns(FlatAST flat) {
+            int size = flat.size();
+            kinds = new byte[size];
+            firstChild = new int[size];
+            nextSibling = new int[size];
+            positions = new long[size];
+            symbols = new int[size];
+            types = new int[size];
+            for (int node = 0; node < size; node++) {
+                kinds[node] = (byte)flat.kind(node).ordinal();
+                firstChild[node] = flat.firstChild(node);
+                nextSibling[node] = flat.nextSibling(node);
+                positions[node] = flat.pos(node);
+                symbols[node] = flat.symbol(node);
+                types[node] = flat.type(node);
+            }
+        }
+
+        // Truncated or padded with zeros to the given size.
+        Columns(Columns other, int size) {
+            kinds = Arrays.copyOf(other.kinds, size);
+            firstChild = Arrays.copyOf(other.firstChild, size);
+            nextSibling = Arrays.copyOf(other.nextSibling, size);
+            positions = Arrays.copyOf(other.positions, size);
+            symbols = Arrays.copyOf(other.symbols, size);
+            types = Arrays.copyOf(other.types, size);
+        }
+
+        Columns copy() {
+            return new Columns(this, size());
+        }
+
+        int size() {
+            return kinds.length;
+        }
+
+        FlatAST tree(FlatAST flat) {
+            return new FlatAST(flat.symbolTable, flat.sources, kinds, firstChild, nextSibling, positions,
+                    symbols, types);
+        }
+    }
+
+    // Records the kind and position of every node it visits, in preorder.
+    private static final class Recorder implements ASTVisitor<Void> {
+        final List<NodeKind> kinds = new ArrayList<>();
+        final List<Long> positions = new ArrayList<>();
+
+        private Void node(ASTNode node) {
+            kinds.add(node.kind);
+            positions.add(node.pos);
+            for (int i = 0; i < ASTChildren.count(node); i++)
+                ASTChildren.get(node, i).accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Prog prog) {
+            return node(prog);
+        }
+
+        @Override
+        public Void visit(ClassRule cl) {
+            return node(cl);
+        }
+
+        @Override
+        public Void visit(Formal formal) {
+            return node(formal);
+        }
+
+        @Override
+        public Void visit(Method method) {
+            return node(method);
+        }
+
+        @Override
+        public Void visit(Atribut atribut) {
+            return node(atribut);
+        }
+
+        @Override
+        public Void visit(Int integer) {
+            return node(integer);
+        }
+
+        @Override
+        public Void visit(Bool bool) {
+            return node(bool);
+        }
+
+        @Override
+        public Void visit(Str str) {
+            return node(str);
+        }
+
+        @Override
+        public Void visit(Id id) {
+            return node(id);
+        }
+
+        @Override
+        public Void visit(MultDiv multDiv) {
+            return node(multDiv);
+        }
+
+        @Override
+        public Void visit(PlusMinus plusMinus) {
+            return node(plusMinus);
+        }
+
+        @Override
+        public Void visit(Parantheses parantheses) {
+            return node(parantheses);
+        }
+
+        @Override
+        public Void visit(UnaryMinus unaryMinus) {
+            return node(unaryMinus);
+        }
+
+        @Override
+        public Void visit(Relational relational) {
+            return node(relational);
+        }
+
+        @Override
+        public Void visit(Not not) {
+            return node(not);
+        }
+
+        @Override
+        public Void visit(Assign assign) {
+            return node(assign);
+        }
+
+        @Override
+        public Void visit(IsVoid isVoid) {
+            return node(isVoid);
+        }
+
+        @Override
+        public Void visit(New newRule) {
+            return node(newRule);
+        }
+
+        @Override
+        public Void visit(If ifRule) {
+            return node(ifRule);
+        }
+
+        @Override
+        public Void visit(While whileRule) {
+            return node(whileRule);
+        }
+
+        @Override
+        public Void visit(Block block) {
+            return node(block);
+        }
+
+        @Override
+        public Void visit(CallMethod callMethod) {
+            return node(callMethod);
+        }
+
+        @Override
+        public Void visit(CallFunction callFunction) {
+            return node(callFunction);
+        }
+
+        @Override
+        public Void visit(LetVar letVar) {
+            return node(letVar);
+        }
+
+        @Override
+        public Void visit(Let letRule) {
+            return node(letRule);
+        }
+
+        @Override
+        public Void visit(CaseBranch caseBranch) {
+            return node(caseBranch);
+        }
+
+        @Override
+        public Void visit(Case caseRule) {
+            return node(caseRule);
+        }
+    }
+
+    private static String print(Prog root) {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new PrintStream(bytes, false, StandardCharsets.UTF_8)) {
+            new ASTPrinter(out).print(root);
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+}
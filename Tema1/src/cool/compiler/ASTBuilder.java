@@ -0,0 +1,270 @@
+package cool.compiler;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.*;
+
+import cool.parser.*;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Turns the parse tree of one file into an AST.
+class ASTBuilder extends CoolParserBaseVisitor<ASTNode> {
+    // Files with at least this many classes have their classes built in
+    // parallel; below it, the fork-join overhead is not worth it.
+    static final int PARALLEL_THRESHOLD = 64;
+
+    private final SymbolTable symbols;
+    private final SourceMap sources;
+    // Id of the file whose parse tree is being visited.
+    private final int fileId;
+    // Shares structurally equal subtrees, if enabled.
+    private final HashConsTable hashCons;
+
+    ASTBuilder(SymbolTable symbols, SourceMap sources, int fileId, boolean hashCons) {
+        this.symbols = symbols;
+        this.sources = sources;
+        this.fileId = fileId;
+        this.hashCons = hashCons ? new HashConsTable() : null;
+    }
+
+    // Builds the AST of a file. The classes of a file are independent of each
+    // other, so for large files they are built concurrently on the worker
+    // pool, in chunks of consecutive classes, each chunk with its own builder
+    // that is dropped when the chunk is done.
+    //
+    // With hash-consing, the parallel chunks build plain trees, which are
+    // then interned in source order into a single table. Which subtrees are
+    // shared is thus the same as when building sequentially, whatever the
+    // scheduling.
+    static Prog build(CoolParser.ProgramContext tree, SymbolTable symbols, SourceMap sources,
+                      int fileId, boolean hashCons) {
+        var contexts = tree.classes;
+        var classes = new ClassRule[contexts.size()];
+        if (classes.length >= PARALLEL_THRESHOLD) {
+            int chunks = Math.min(classes.length, 4 * Workers.PARALLELISM);
+            var tasks = new CompletableFuture<?>[chunks];
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int from = (int)((long)chunk * classes.length / chunks);
+                int to = (int)((long)(chunk + 1) * classes.length / chunks);
+                tasks[chunk] = CompletableFuture.runAsync(() -> {
+                    var builder = new ASTBuilder(symbols, sources, fileId, false);
+                    for (int i = from; i < to; i++)
+                        classes[i] = (ClassRule)builder.visit(contexts.get(i));
+                }, Workers.POOL);
+            }
+            try {
+                CompletableFuture.allOf(tasks).join();
+            } catch (CompletionException e) {
+                // Report the failure of a chunk (e.g. a StackOverflowError
+                // on a deeply nested expression) as if it happened here.
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException)e.getCause();
+                if (e.getCause() instanceof Error)
+                    throw (Error)e.getCause();
+                throw e;
+            }
+
+            if (hashCons) {
+                var table = new HashConsTable();
+                for (int i = 0; i < classes.length; i++)
+                    classes[i] = table.internTree(classes[i]);
+            }
+        } else {
+            var builder = new ASTBuilder(symbols, sources, fileId, hashCons);
+            for (int i = 0; i < classes.length; i++)
+                classes[i] = (ClassRule)builder.visit(contexts.get(i));
+        }
+
+        var start = tree.start;
+        long pos = SourceMap.pack(fileId, start.getLine(), start.getCharPositionInLine());
+        return new Prog(List.of(classes), symbols, sources, pos);
+    }
+
+    @Override
+    public ASTNode visit(ParseTree tree) {
+        var node = super.visit(tree);
+        return hashCons == null ? node : hashCons.intern(node);
+    }
+
+    @Override
+    public ASTNode visitProgram(CoolParser.ProgramContext ctx) {
+        long pos = pos(ctx.start);
+        List<ClassRule> classes = visitAll(ctx.classes);
+        return new Prog(classes, symbols, sources, pos);
+    }
+
+    @Override
+    public ASTNode visitParantheses(CoolParser.ParanthesesContext ctx) {
+        return new Parantheses((Expression)visit(ctx.e), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitUnaryMinus(CoolParser.UnaryMinusContext ctx) {
+        return new UnaryMinus((Expression)visit(ctx.e), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitClassRule(CoolParser.ClassRuleContext ctx) {
+        List<Feature> features = visitAll(ctx.body);
+        return new ClassRule(sym(ctx.type), sym(ctx.inheritsType), features, pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitFormal(CoolParser.FormalContext ctx) {
+        return new Formal(sym(ctx.name), sym(ctx.type), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitMethod(CoolParser.MethodContext ctx) {
+        Expression expr = null;
+        List<Formal> formals = visitAll(ctx.formals);
+        if (ctx.e != null)
+            expr = (Expression)visit(ctx.e);
+        return new Method(sym(ctx.name), formals, sym(ctx.type), expr, pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitBool(CoolParser.BoolContext ctx) {
+        return new Bool(sym(ctx.start), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitAtribut(CoolParser.AtributContext ctx) {
+        Expression expr = null;
+        if (ctx.e != null)
+            expr = (Expression)visit(ctx.e);
+        return new Atribut(sym(ctx.name), sym(ctx.type), expr, pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitInt(CoolParser.IntContext ctx) {
+        return new Int(sym(ctx.start), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitId(CoolParser.IdContext ctx) {
+        return new Id(sym(ctx.start), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitString(CoolParser.StringContext ctx) {
+        return new Str(sym(ctx.start), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitPlusMinus(CoolParser.PlusMinusContext ctx) {
+        return new PlusMinus((Expression)visit(ctx.left), sym(ctx.op), (Expression)visit(ctx.right), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitMultDiv(CoolParser.MultDivContext ctx) {
+        return new MultDiv((Expression)visit(ctx.left), sym(ctx.op),(Expression)visit(ctx.right), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitRelational(CoolParser.RelationalContext ctx) {
+        return new Relational((Expression)visit(ctx.left), sym(ctx.op), (Expression)visit(ctx.right), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitNot(CoolParser.NotContext ctx) {
+        return new Not((Expression)visit(ctx.e), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitAssign(CoolParser.AssignContext ctx) {
+        return new Assign(sym(ctx.name), (Expression)visit(ctx.e), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitIsVoid(CoolParser.IsVoidContext ctx) {
+        return new IsVoid((Expression)visit(ctx.e), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitNew(CoolParser.NewContext ctx) {
+        return new New(sym(ctx.type), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitIf(CoolParser.IfContext ctx) {
+        return new If((Expression)visit(ctx.cond), (Expression)visit(ctx.thenBranch),
+                (Expression)visit(ctx.elseBranch), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitLet(CoolParser.LetContext ctx) {
+        List<LetVar> defs = visitAll(ctx.defs);
+        return new Let(defs, (Expression)visit(ctx.body), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitWhile(CoolParser.WhileContext ctx) {
+        return new While((Expression)visit(ctx.cond), (Expression)visit(ctx.e), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitBlock(CoolParser.BlockContext ctx) {
+        List<Expression> expr = visitAll(ctx.e);
+        return new Block(expr, pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitCallMethod(CoolParser.CallMethodContext ctx) {
+        // Children are visited in source order, which is also the order in
+        // which HashConsTable.internTree visits them.
+        var expr = (Expression)visit(ctx.e1);
+        List<Expression> args = visitAll(ctx.args);
+        return new CallMethod(expr, sym(ctx.name), sym(ctx.type), args, pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitCaseBranch(CoolParser.CaseBranchContext ctx) {
+        return new CaseBranch(sym(ctx.name), sym(ctx.type), (Expression)visit(ctx.e), pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitCase(CoolParser.CaseContext ctx) {
+        var cond = (Expression)visit(ctx.cond);
+        List<CaseBranch> branches = visitAll(ctx.caseBranch());
+        return new Case(cond, branches, pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitCallFunction(CoolParser.CallFunctionContext ctx) {
+        List<Expression> expr = visitAll(ctx.e);
+        return new CallFunction(sym(ctx.name), expr, pos(ctx.start));
+    }
+
+    @Override
+    public ASTNode visitLetVar(CoolParser.LetVarContext ctx) {
+        Expression expr = null;
+        if (ctx.e != null) {
+            expr = (Expression)visit(ctx.e);
+        }
+        return new LetVar(sym(ctx.name), sym(ctx.type), expr, pos(ctx.start));
+    }
+
+    private long pos(Token token) {
+        return SourceMap.pack(fileId, token.getLine(), token.getCharPositionInLine());
+    }
+
+    private int sym(Token token) {
+        return token == null ? SymbolTable.NONE : symbols.intern(token.getText());
+    }
+
+    // Visits a list of child contexts and returns an immutable list of
+    // exactly the right size, backed by a single array.
+    @SuppressWarnings("unchecked")
+    private <N extends ASTNode> List<N> visitAll(List<? extends ParserRuleContext> children) {
+        if (children == null || children.isEmpty())
+            return List.of();
+
+        var nodes = new ASTNode[children.size()];
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = visit(children.get(i));
+        return (List<N>)List.of(nodes);
+    }
+}
@@ -0,0 +1,239 @@
+package cool.compiler;
+
+import java.util.List;
+
+// Generic access to the children of any AST node, through an exhaustive
+// switch on its kind instead of double dispatch through accept. Children are
+// numbered in the order the print visitor walks them (e.g. a method's formals,
+// then its body); optional children that are missing are not counted. An
+// index outside 0 to count - 1 throws IndexOutOfBoundsException, as for a
+// list.
+final class ASTChildren {
+    private ASTChildren() {
+    }
+
+    static int count(ASTNode node) {
+        return switch (node.kind) {
+            case PROG -> ((Prog)node).classes.size();
+            case CLASS -> ((ClassRule)node).body.size();
+            case METHOD -> {
+                var method = (Method)node;
+                yield method.formals.size() + (method.expr == null ? 0 : 1);
+            }
+            case ATTRIBUTE -> ((Atribut)node).expr == null ? 0 : 1;
+            case FORMAL, INT, BOOL, STR, ID, NEW -> 0;
+            case MULT_DIV, PLUS_MINUS, RELATIONAL, WHILE -> 2;
+            case PARANTHESES, UNARY_MINUS, NOT, ASSIGN, IS_VOID, CASE_BRANCH -> 1;
+            case IF -> 3;
+            case BLOCK -> ((Block)node).expr.size();
+            case CALL_METHOD -> 1 + ((CallMethod)node).args.size();
+            case CALL_FUNCTION -> ((CallFunction)node).expr.size();
+            case LET_VAR -> ((LetVar)node).expr == null ? 0 : 1;
+            case LET -> {
+                var let = (Let)node;
+                yield let.defs.size() + (let.body == null ? 0 : 1);
+            }
+            case CASE -> 1 + ((Case)node).branches.size();
+        };
+    }
+
+    static ASTNode get(ASTNode node, int index) {
+        return switch (node.kind) {
+            case PROG -> ((Prog)node).classes.get(index);
+            case CLASS -> ((ClassRule)node).body.get(index);
+            case METHOD -> {
+                var method = (Method)node;
+                if (index < method.formals.size())
+                    yield method.formals.get(index);
+                yield expression(method.expr, index - method.formals.size());
+            }
+            case ATTRIBUTE -> expression(((Atribut)node).expr, index);
+            case FORMAL, INT, BOOL, STR, ID, NEW -> throw new IndexOutOfBoundsException(index);
+            case MULT_DIV -> {
+                var multDiv = (MultDiv)node;
+                yield either(multDiv.left, multDiv.right, index);
+            }
+            case PLUS_MINUS -> {
+                var plusMinus = (PlusMinus)node;
+                yield either(plusMinus.left, plusMinus.right, index);
+            }
+            case RELATIONAL -> {
+                var relational = (Relational)node;
+                yield either(relational.left, relational.right, index);
+            }
+            case WHILE -> {
+                var whileRule = (While)node;
+                yield either(whileRule.cond, whileRule.expr, index);
+            }
+            case PARANTHESES -> expression(((Parantheses)node).expr, index);
+            case UNARY_MINUS -> expression(((UnaryMinus)node).expr, index);
+            case NOT -> expression(((Not)node).expr, index);
+            case ASSIGN -> expression(((Assign)node).expr, index);
+            case IS_VOID -> expression(((IsVoid)node).expr, index);
+            case CASE_BRANCH -> expression(((CaseBranch)node).expr, index);
+            case IF -> {
+                var ifRule = (If)node;
+                yield switch (index) {
+                    case 0 -> ifRule.cond;
+                    case 1 -> ifRule.thenBranch;
+                    case 2 -> ifRule.elseBranch;
+                    default -> throw new IndexOutOfBoundsException(index);
+                };
+            }
+            case BLOCK -> ((Block)node).expr.get(index);
+            case CALL_METHOD -> {
+                var callMethod = (CallMethod)node;
+                yield index == 0 ? callMethod.expr : callMethod.args.get(index - 1);
+            }
+            case CALL_FUNCTION -> ((CallFunction)node).expr.get(index);
+            case LET_VAR -> expression(((LetVar)node).expr, index);
+            case LET -> {
+                var let = (Let)node;
+                if (index < let.defs.size())
+                    yield let.defs.get(index);
+                yield expression(let.body, index - let.defs.size());
+            }
+            case CASE -> {
+                var caseRule = (Case)node;
+                yield index == 0 ? caseRule.cond : caseRule.branches.get(index - 1);
+            }
+        };
+    }
+
+    // Returns a node equal to the given one, except that its child with the
+    // given index is replaced. The node itself is returned if the child is
+    // unchanged. Optional children that are missing cannot be added this way.
+    //
+    // This is the index-based form of the typed with* methods of the nodes,
+    // for generic walks such as ASTPath; passes that know the node's class
+    // should call those directly, so a child of the wrong type is a compile
+    // error rather than a ClassCastException here.
+    static ASTNode withChild(ASTNode node, int index, ASTNode child) {
+        return switch (node.kind) {
+            case PROG -> {
+                var prog = (Prog)node;
+                yield prog.withClasses(replace(prog.classes, index, (ClassRule)child));
+            }
+            case CLASS -> {
+                var cl = (ClassRule)node;
+                yield cl.withBody(replace(cl.body, index, (Feature)child));
+            }
+            case METHOD -> {
+                var method = (Method)node;
+                if (index < method.formals.size())
+                    yield method.withFormals(replace(method.formals, index, (Formal)child));
+                yield method.withExpr(expression(method.expr, index - method.formals.size(), child));
+            }
+            case ATTRIBUTE -> ((Atribut)node).withExpr(expression(((Atribut)node).expr, index, child));
+            case FORMAL, INT, BOOL, STR, ID, NEW -> throw new IndexOutOfBoundsException(index);
+            case MULT_DIV -> {
+                var multDiv = (MultDiv)node;
+                yield switch (index) {
+                    case 0 -> multDiv.withLeft((Expression)child);
+                    case 1 -> multDiv.withRight((Expression)child);
+                    default -> throw new IndexOutOfBoundsException(index);
+                };
+            }
+            case PLUS_MINUS -> {
+                var plusMinus = (PlusMinus)node;
+                yield switch (index) {
+                    case 0 -> plusMinus.withLeft((Expression)child);
+                    case 1 -> plusMinus.withRight((Expression)child);
+                    default -> throw new IndexOutOfBoundsException(index);
+                };
+            }
+            case RELATIONAL -> {
+                var relational = (Relational)node;
+                yield switch (index) {
+                    case 0 -> relational.withLeft((Expression)child);
+                    case 1 -> relational.withRight((Expression)child);
+                    default -> throw new IndexOutOfBoundsException(index);
+                };
+            }
+            case WHILE -> {
+                var whileRule = (While)node;
+                yield switch (index) {
+                    case 0 -> whileRule.withCond((Expression)child);
+                    case 1 -> whileRule.withExpr((Expression)child);
+                    default -> throw new IndexOutOfBoundsException(index);
+                };
+            }
+            case PARANTHESES -> ((Parantheses)node).withExpr(expression(((Parantheses)node).expr, index, child));
+            case UNARY_MINUS -> ((UnaryMinus)node).withExpr(expression(((UnaryMinus)node).expr, index, child));
+            case NOT -> ((Not)node).withExpr(expression(((Not)node).expr, index, child));
+            case ASSIGN -> ((Assign)node).withExpr(expression(((Assign)node).expr, index, child));
+            case IS_VOID -> ((IsVoid)node).withExpr(expression(((IsVoid)node).expr, index, child));
+            case CASE_BRANCH -> ((CaseBranch)node).withExpr(expression(((CaseBranch)node).expr, index, child));
+            case IF -> {
+                var ifRule = (If)node;
+                yield switch (index) {
+                    case 0 -> ifRule.withCond((Expression)child);
+                    case 1 -> ifRule.withThenBranch((Expression)child);
+                    case 2 -> ifRule.withElseBranch((Expression)child);
+                    default -> throw new IndexOutOfBoundsException(index);
+                };
+            }
+            case BLOCK -> {
+                var block = (Block)node;
+                yield block.withExpr(replace(block.expr, index, (Expression)child));
+            }
+            case CALL_METHOD -> {
+                var callMethod = (CallMethod)node;
+                if (index == 0)
+                    yield callMethod.withExpr((Expression)child);
+                yield callMethod.withArgs(replace(callMethod.args, index - 1, (Expression)child));
+            }
+            case CALL_FUNCTION -> {
+                var callFunction = (CallFunction)node;
+                yield callFunction.withExpr(replace(callFunction.expr, index, (Expression)child));
+            }
+            case LET_VAR -> ((LetVar)node).withExpr(expression(((LetVar)node).expr, index, child));
+            case LET -> {
+                var let = (Let)node;
+                if (index < let.defs.size())
+                    yield let.withDefs(replace(let.defs, index, (LetVar)child));
+                yield let.withBody(expression(let.body, index - let.defs.size(), child));
+            }
+            case CASE -> {
+                var caseRule = (Case)node;
+                if (index == 0)
+                    yield caseRule.withCond((Expression)child);
+                yield caseRule.withBranches(replace(caseRule.branches, index - 1, (CaseBranch)child));
+            }
+        };
+    }
+
+    // The only expression child of a node, which may be missing if it is
+    // optional.
+    private static Expression expression(Expression expr, int index) {
+        if (expr == null || index != 0)
+            throw new IndexOutOfBoundsException(index);
+        return expr;
+    }
+
+    private static Expression either(Expression first, Expression second, int index) {
+        return switch (index) {
+            case 0 -> first;
+            case 1 -> second;
+            default -> throw new IndexOutOfBoundsException(index);
+        };
+    }
+
+    // The replacement of the only expression child of a node, which must be
+    // present.
+    private static Expression expression(Expression current, int index, ASTNode child) {
+        expression(current, index);
+        return (Expression)child;
+    }
+
+    // Copy of an immutable list with one element replaced, or the list itself
+    // if the element is unchanged.
+    @SuppressWarnings("unchecked")
+    private static <N extends ASTNode> List<N> replace(List<N> list, int index, N value) {
+        if (list.get(index) == value)
+            return list;
+        var nodes = (N[])list.toArray(new ASTNode[0]);
+        nodes[index] = value;
+        return List.of(nodes);
+    }
+}
@@ -0,0 +1,135 @@
+package cool.compiler;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.AbstractList;
+
+// Loads .coolast artifacts written by ASTFileWriter. The file is read whole
+// and its arrays are bulk-copied into a FlatAST; the ClassRule objects are
+// only built when a class is first accessed.
+//
+// The file is not memory mapped: a mapping cannot be released explicitly,
+// and on Windows a mapped file cannot be replaced, so writing a fresh
+// artifact over a stale one would fail until the mapping was collected.
+class ASTFileReader {
+    // Returns the AST stored in the artifact, with its symbols interned in the
+    // given table and its positions moved to the given file. Returns null if
+    // the artifact is missing, unreadable, or does not match the source.
+    static Prog load(String path, SourceChecksum checksum, int fileId,
+                     SymbolTable symbolTable, SourceMap sources) {
+        var file = Paths.get(path);
+        if (!Files.isRegularFile(file))
+            return null;
+
+        try {
+            return read(ByteBuffer.wrap(Files.readAllBytes(file)), checksum, fileId, symbolTable, sources);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException
+                | IndexOutOfBoundsException e) {
+            // A damaged artifact is treated like a missing one.
+            return null;
+        }
+    }
+
+    private static Prog read(ByteBuffer buffer, SourceChecksum checksum, int fileId,
+                             SymbolTable symbolTable, SourceMap sources) {
+        if (buffer.getInt() != ASTFileWriter.MAGIC || buffer.getInt() != ASTFileWriter.VERSION)
+            return null;
+        var digest = new byte[SourceChecksum.SIZE];
+        buffer.get(digest);
+        if (!checksum.matches(digest))
+            return null;
+
+        // Counts are checked against what is left of the file, so a damaged
+        // one cannot make us allocate huge arrays.
+        int symbolCount = buffer.getInt();
+        if (symbolCount < 0 || symbolCount > buffer.remaining() / 4)
+            return null;
+        var globalIds = new int[symbolCount];
+        for (int i = 0; i < globalIds.length; i++) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining())
+                return null;
+            var bytes = new byte[length];
+            buffer.get(bytes);
+            globalIds[i] = symbolTable.intern(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        // A byte, two ints, a long and two more ints per node.
+        int size = buffer.getInt();
+        if (size <= 0 || (long)size * 25 != buffer.remaining())
+            return null;
+        var kinds = new byte[size];
+        var firstChild = new int[size];
+        var nextSibling = new int[size];
+        var positions = new long[size];
+        var symbols = new int[size];
+        var types = new int[size];
+
+        buffer.get(kinds);
+        buffer.asIntBuffer().get(firstChild);
+        buffer.position(buffer.position() + 4 * size);
+        buffer.asIntBuffer().get(nextSibling);
+        buffer.position(buffer.position() + 4 * size);
+        buffer.asLongBuffer().get(positions);
+        buffer.position(buffer.position() + 8 * size);
+        buffer.asIntBuffer().get(symbols);
+        buffer.position(buffer.position() + 4 * size);
+        buffer.asIntBuffer().get(types);
+
+        for (int node = 0; node < size; node++) {
+            if (!isSymbol(symbols[node], globalIds.length) || !isSymbol(types[node], globalIds.length))
+                return null;
+            positions[node] = SourceMap.withFileId(positions[node], fileId);
+            if (symbols[node] != SymbolTable.NONE)
+                symbols[node] = globalIds[symbols[node]];
+            if (types[node] != SymbolTable.NONE)
+                types[node] = globalIds[types[node]];
+        }
+
+        // Classes are built lazily, long after loading, so a damaged tree
+        // must be caught here, while the source can still be parsed instead.
+        var flat = new FlatAST(symbolTable, sources, kinds, firstChild, nextSibling,
+                positions, symbols, types);
+        if (!flat.isWellFormed())
+            return null;
+        return new Prog(new LazyClasses(flat), symbolTable, sources, flat.pos(flat.root()));
+    }
+
+    private static boolean isSymbol(int id, int count) {
+        return id == SymbolTable.NONE || (id >= 0 && id < count);
+    }
+
+    // The classes of a loaded program, built on first access.
+    private static class LazyClasses extends AbstractList<ClassRule> {
+        private final FlatAST flat;
+        private final int[] nodes;
+        private final ClassRule[] classes;
+
+        LazyClasses(FlatAST flat) {
+            this.flat = flat;
+            int count = 0;
+            for (int c = flat.firstChild(flat.root()); c != FlatAST.NO_NODE; c = flat.nextSibling(c))
+                count++;
+            nodes = new int[count];
+            int i = 0;
+            for (int c = flat.firstChild(flat.root()); c != FlatAST.NO_NODE; c = flat.nextSibling(c))
+                nodes[i++] = c;
+            classes = new ClassRule[count];
+        }
+
+        @Override
+        public ClassRule get(int index) {
+            if (classes[index] == null)
+                classes[index] = (ClassRule)flat.toNode(nodes[index]);
+            return classes[index];
+        }
+
+        @Override
+        public int size() {
+            return nodes.length;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package cool.compiler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+// Writes the AST of one source file as a binary .coolast artifact, which lets
+// later compiles skip lexing and parsing while the source is unchanged.
+//
+// The file holds the flat encoding of the AST (see FlatAST), big-endian:
+//   int    MAGIC, int VERSION
+//   byte   checksum[32] of the source file and the compiler (SourceChecksum)
+//   int    symbol count, then for each symbol: int byte count, UTF-8 bytes
+//   int    node count, then one array after the other:
+//          byte kinds[], int firstChild[], int nextSibling[],
+//          long positions[], int symbols[], int types[]
+// Symbol ids are local to the artifact and positions carry file id 0; both
+// are remapped when the artifact is loaded (see ASTFileReader).
+class ASTFileWriter {
+    static final int MAGIC = 0x434F4F4C; // "COOL"
+    static final int VERSION = 2;
+
+    static String artifactPath(String sourceFile) {
+        var base = sourceFile.endsWith(".cl")
+                ? sourceFile.substring(0, sourceFile.length() - 3)
+                : sourceFile;
+        return base + ".coolast";
+    }
+
+    // Failing to write an artifact only costs a reparse on the next compile,
+    // so errors are not reported.
+    static void write(String path, Prog ast, SourceChecksum checksum) {
+        var target = Paths.get(path);
+        Path temp = null;
+        try {
+            var dir = target.toAbsolutePath().getParent();
+            temp = Files.createTempFile(dir, target.getFileName().toString(), ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temp), 1 << 16))) {
+                write(out, FlatAST.encode(ast), checksum);
+            }
+            // Readers must never see a partially written artifact.
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            try {
+                if (temp != null)
+                    Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void write(DataOutputStream out, FlatAST flat, SourceChecksum checksum)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(checksum.bytes());
+
+        // Only the symbols used by this file are written, with local ids in
+        // order of first use.
+        int size = flat.size();
+        var localIds = new int[flat.symbolTable.size()];
+        Arrays.fill(localIds, SymbolTable.NONE);
+        var used = new int[localIds.length];
+        int usedCount = 0;
+        var symbols = new int[size];
+        var types = new int[size];
+        for (int node = 0; node < size; node++) {
+            for (int pass = 0; pass < 2; pass++) {
+                int id = pass == 0 ? flat.symbol(node) : flat.type(node);
+                if (id != SymbolTable.NONE && localIds[id] == SymbolTable.NONE) {
+                    localIds[id] = usedCount;
+                    used[usedCount++] = id;
+                }
+                int local = id == SymbolTable.NONE ? SymbolTable.NONE : localIds[id];
+                if (pass == 0)
+                    symbols[node] = local;
+                else
+                    types[node] = local;
+            }
+        }
+
+        out.writeInt(usedCount);
+        for (int i = 0; i < usedCount; i++) {
+            var bytes = flat.symbolTable.name(used[i]).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        out.writeInt(size);
+        for (int node = 0; node < size; node++)
+            out.writeByte(flat.kind(node).ordinal());
+        for (int node = 0; node < size; node++)
+            out.writeInt(flat.firstChild(node));
+        for (int node = 0; node < size; node++)
+            out.writeInt(flat.nextSibling(node));
+        for (int node = 0; node < size; node++)
+            out.writeLong(SourceMap.withFileId(flat.pos(node), 0));
+        for (int node = 0; node < size; node++)
+            out.writeInt(symbols[node]);
+        for (int node = 0; node < size; node++)
+            out.writeInt(types[node]);
+    }
+}
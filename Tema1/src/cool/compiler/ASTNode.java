@@ -1,244 +1,345 @@
 package cool.compiler;
 
-import org.antlr.v4.runtime.Token;
 import java.util.*;
 
 // Rădăcina ierarhiei de clase reprezentând nodurile arborelui de sintaxă
 // abstractă (AST). Singura metodă permite primirea unui visitor.
-public abstract class ASTNode {
-    public <T> T accept(ASTVisitor<T> visitor) {
-        return null;
-    }
+// Listele de copii (body, formals, args etc.) sunt liste imutabile, de
+// dimensiune exactă, construite o singură dată de visitorul de construcție.
+//
+// Nodurile nu mai rețin token-uri ANTLR: poziția este împachetată într-un
+// long (fișier, linie, coloană - vezi SourceMap), iar numele, tipurile,
+// operatorii și literalii sunt identificatori întregi din SymbolTable.
+// Astfel, fluxul de token-uri poate fi eliberat imediat după construcția AST.
+//
+// Ierarhia este închisă (sealed), iar fiecare nod își reține tipul în câmpul
+// kind. Astfel, pe lângă visitor, un pas poate parcurge arborele cu un switch
+// exhaustiv pe kind (vezi ASTChildren), fără dispatch dublu prin accept.
+//
+// Toate nodurile sunt imutabile, ceea ce permite partajarea subarborilor
+// identici (hash-consing, vezi HashConsTable) și transformări persistente:
+// un pas de rescriere copiază doar drumul de la nodul modificat până la
+// rădăcină (vezi ASTChildren.withChild și ASTPath), restul arborelui fiind
+// partajat între versiuni.
+//
+// Pentru fiecare câmp copil, nodul are o metodă with* tipată (de exemplu
+// Method.withExpr(Expression)) care întoarce o copie cu acel câmp înlocuit,
+// sau chiar nodul, dacă valoarea nu s-a schimbat. Poziția este păstrată.
+public abstract sealed class ASTNode {
+    final NodeKind kind;
+    // Poziția de început a nodului, pentru a putea afișa ulterior informații
+    // legate de linia și coloana eventualelor erori semantice.
+    final long pos;
+    // Hash structural al subarborelui (tip, simboluri și copii, fără poziții),
+    // calculat de jos în sus la construcție - vezi StructuralHash.
+    final int hash;
+
+    ASTNode(NodeKind kind, long pos, int hash) {
+        this.kind = kind;
+        this.pos = pos;
+        this.hash = hash;
+    }
+
+    public abstract <T> T accept(ASTVisitor<T> visitor);
 }
 
-class Prog extends ASTNode {
-    // Reținem un token descriptiv al expresiei, pentru a putea afișa ulterior
-    // informații legate de linia și coloana eventualelor erori semantice.
-    Token token;
-    List<ClassRule> classes;
-    Prog(List<ClassRule> classes,Token token) {
-        this.token = token;
+final class Prog extends ASTNode {
+    final List<ClassRule> classes;
+    // Tabelele necesare pentru a reface textul simbolurilor și pozițiile.
+    final SymbolTable symbols;
+    final SourceMap sources;
+    Prog(List<ClassRule> classes, SymbolTable symbols, SourceMap sources, long pos) {
+        // Rădăcina programului nu are hash structural.
+        super(NodeKind.PROG, pos, 0);
         this.classes = classes;
+        this.symbols = symbols;
+        this.sources = sources;
+    }
+    Prog withClasses(List<ClassRule> classes) {
+        return classes == this.classes ? this : new Prog(classes, symbols, sources, pos);
     }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class ClassRule extends ASTNode {
-    Token token;
-    Token type;
-    Token inheritsType;
-    LinkedList<Feature>body;
-
-    ClassRule(Token type, Token inheritsType, LinkedList<Feature> body, Token token) {
+final class ClassRule extends ASTNode {
+    final int type;
+    final int inheritsType;
+    final List<Feature> body;
+
+    ClassRule(int type, int inheritsType, List<Feature> body, long pos) {
+        super(NodeKind.CLASS, pos,
+                StructuralHash.of(NodeKind.CLASS, type, inheritsType, StructuralHash.of(body)));
         this.type = type;
         this.inheritsType = inheritsType;
         this.body = body;
-        this.token = token;
-
+    }
+    ClassRule withBody(List<Feature> body) {
+        return body == this.body ? this : new ClassRule(type, inheritsType, body, pos);
     }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-abstract class Feature extends ASTNode {
-    Token token;
-
-    Feature(Token token) {
-        this.token = token;
+abstract sealed class Feature extends ASTNode {
+    Feature(NodeKind kind, long pos, int hash) {
+        super(kind, pos, hash);
     }
 }
-class  Method extends Feature {
-    Token name;
-    LinkedList<Formal> formals;
-    Token type;
-    Expression expr;
-    Method(Token name, LinkedList<Formal> formals, Token type, Expression expr, Token token) {
-        super(token);
+final class Method extends Feature {
+    final int name;
+    final List<Formal> formals;
+    final int type;
+    final Expression expr;
+    Method(int name, List<Formal> formals, int type, Expression expr, long pos) {
+        super(NodeKind.METHOD, pos,
+                StructuralHash.of(NodeKind.METHOD, name, type, StructuralHash.of(formals), StructuralHash.of(expr)));
         this.name = name;
         this.formals = formals;
         this.type = type;
         this.expr = expr;
     }
+    Method withFormals(List<Formal> formals) {
+        return formals == this.formals ? this : new Method(name, formals, type, expr, pos);
+    }
+    Method withExpr(Expression expr) {
+        return expr == this.expr ? this : new Method(name, formals, type, expr, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class Atribut extends Feature {
-    Token name;
-    Token type;
-    Expression expr;
-    Atribut(Token name, Token type, Expression expr, Token token) {
-        super(token);
+final class Atribut extends Feature {
+    final int name;
+    final int type;
+    final Expression expr;
+    Atribut(int name, int type, Expression expr, long pos) {
+        super(NodeKind.ATTRIBUTE, pos,
+                StructuralHash.of(NodeKind.ATTRIBUTE, name, type, StructuralHash.of(expr)));
         this.name = name;
         this.type = type;
         this.expr = expr;
     }
+    Atribut withExpr(Expression expr) {
+        return expr == this.expr ? this : new Atribut(name, type, expr, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class Formal extends ASTNode {
-    Token token;
-    Token name;
-    Token type;
+final class Formal extends ASTNode {
+    final int name;
+    final int type;
 
-    Formal(Token name, Token type,Token token) {
+    Formal(int name, int type, long pos) {
+        super(NodeKind.FORMAL, pos,
+                StructuralHash.of(NodeKind.FORMAL, name, type));
         this.name = name;
         this.type = type;
-        this.token = token;
-
     }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-abstract class Expression extends ASTNode {
-    Token token;
-    Expression(Token token) {
-        this.token = token;
+abstract sealed class Expression extends ASTNode {
+    Expression(NodeKind kind, long pos, int hash) {
+        super(kind, pos, hash);
     }
 }
-class Int extends Expression {
-    Int(Token token) {
-        super(token);
+final class Int extends Expression {
+    final int value;
+    Int(int value, long pos) {
+        super(NodeKind.INT, pos,
+                StructuralHash.of(NodeKind.INT, value));
+        this.value = value;
     }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class Bool extends Expression {
-    Bool(Token token) {
-        super(token);
+final class Bool extends Expression {
+    final int value;
+    Bool(int value, long pos) {
+        super(NodeKind.BOOL, pos,
+                StructuralHash.of(NodeKind.BOOL, value));
+        this.value = value;
     }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class Str extends Expression {
-    Str(Token token) {
-        super(token);
+final class Str extends Expression {
+    final int value;
+    Str(int value, long pos) {
+        super(NodeKind.STR, pos,
+                StructuralHash.of(NodeKind.STR, value));
+        this.value = value;
     }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class Id extends Expression {
-    Id(Token token) {
-        super(token);
+final class Id extends Expression {
+    final int name;
+    Id(int name, long pos) {
+        super(NodeKind.ID, pos,
+                StructuralHash.of(NodeKind.ID, name));
+        this.name = name;
     }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class MultDiv extends Expression {
-    Expression left;
-    Token op;
-    Expression right;
-
-    MultDiv(Expression left, Token op, Expression right, Token start) {
-        super(start);
+final class MultDiv extends Expression {
+    final Expression left;
+    final int op;
+    final Expression right;
+
+    MultDiv(Expression left, int op, Expression right, long pos) {
+        super(NodeKind.MULT_DIV, pos,
+                StructuralHash.of(NodeKind.MULT_DIV, StructuralHash.of(left), op, StructuralHash.of(right)));
         this.op = op;
         this.left = left;
         this.right = right;
     }
+    MultDiv withLeft(Expression left) {
+        return left == this.left ? this : new MultDiv(left, op, right, pos);
+    }
+    MultDiv withRight(Expression right) {
+        return right == this.right ? this : new MultDiv(left, op, right, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class PlusMinus extends Expression {
-    Expression left;
-    Token sign;
-    Expression right;
-
-    PlusMinus(Expression left, Token sign, Expression right, Token start) {
-        super(start);
+final class PlusMinus extends Expression {
+    final Expression left;
+    final int sign;
+    final Expression right;
+
+    PlusMinus(Expression left, int sign, Expression right, long pos) {
+        super(NodeKind.PLUS_MINUS, pos,
+                StructuralHash.of(NodeKind.PLUS_MINUS, StructuralHash.of(left), sign, StructuralHash.of(right)));
         this.sign = sign;
         this.left = left;
         this.right = right;
     }
 
+    PlusMinus withLeft(Expression left) {
+        return left == this.left ? this : new PlusMinus(left, sign, right, pos);
+    }
+    PlusMinus withRight(Expression right) {
+        return right == this.right ? this : new PlusMinus(left, sign, right, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class Parantheses extends Expression {
-    Expression expr;
+final class Parantheses extends Expression {
+    final Expression expr;
 
-    Parantheses(Expression expr, Token start) {
-        super(start);
+    Parantheses(Expression expr, long pos) {
+        super(NodeKind.PARANTHESES, pos,
+                StructuralHash.of(NodeKind.PARANTHESES, StructuralHash.of(expr)));
         this.expr = expr;
     }
+    Parantheses withExpr(Expression expr) {
+        return expr == this.expr ? this : new Parantheses(expr, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class UnaryMinus extends Expression {
-    Expression expr;
+final class UnaryMinus extends Expression {
+    final Expression expr;
 
-    UnaryMinus(Expression expr, Token start) {
-        super(start);
+    UnaryMinus(Expression expr, long pos) {
+        super(NodeKind.UNARY_MINUS, pos,
+                StructuralHash.of(NodeKind.UNARY_MINUS, StructuralHash.of(expr)));
         this.expr = expr;
     }
 
+    UnaryMinus withExpr(Expression expr) {
+        return expr == this.expr ? this : new UnaryMinus(expr, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class Relational extends Expression {
-    Expression left;
-    Token op;
-    Expression right;
-    Relational(Expression left, Token op, Expression right ,Token start) {
-        super(start);
+final class Relational extends Expression {
+    final Expression left;
+    final int op;
+    final Expression right;
+    Relational(Expression left, int op, Expression right, long pos) {
+        super(NodeKind.RELATIONAL, pos,
+                StructuralHash.of(NodeKind.RELATIONAL, StructuralHash.of(left), op, StructuralHash.of(right)));
         this.left = left;
         this.right = right;
         this.op = op;
     }
 
+    Relational withLeft(Expression left) {
+        return left == this.left ? this : new Relational(left, op, right, pos);
+    }
+    Relational withRight(Expression right) {
+        return right == this.right ? this : new Relational(left, op, right, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class Not extends Expression {
-    Expression expr;
-    Not(Expression expr, Token start) {
-        super(start);
+final class Not extends Expression {
+    final Expression expr;
+    Not(Expression expr, long pos) {
+        super(NodeKind.NOT, pos,
+                StructuralHash.of(NodeKind.NOT, StructuralHash.of(expr)));
         this.expr = expr;
     }
 
+    Not withExpr(Expression expr) {
+        return expr == this.expr ? this : new Not(expr, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class Assign extends Expression {
-    Token name;
-    Expression expr;
-    Assign(Token name, Expression expr, Token start) {
-        super(start);
+final class Assign extends Expression {
+    final int name;
+    final Expression expr;
+    Assign(int name, Expression expr, long pos) {
+        super(NodeKind.ASSIGN, pos,
+                StructuralHash.of(NodeKind.ASSIGN, name, StructuralHash.of(expr)));
         this.name = name;
         this.expr = expr;
     }
 
+    Assign withExpr(Expression expr) {
+        return expr == this.expr ? this : new Assign(name, expr, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class IsVoid extends Expression {
-    Expression expr;
-    IsVoid(Expression expr, Token start) {
-        super(start);
+final class IsVoid extends Expression {
+    final Expression expr;
+    IsVoid(Expression expr, long pos) {
+        super(NodeKind.IS_VOID, pos,
+                StructuralHash.of(NodeKind.IS_VOID, StructuralHash.of(expr)));
         this.expr = expr;
     }
 
+    IsVoid withExpr(Expression expr) {
+        return expr == this.expr ? this : new IsVoid(expr, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class New extends Expression {
-    Token type;
-    New(Token type, Token start) {
-        super(start);
+final class New extends Expression {
+    final int type;
+    New(int type, long pos) {
+        super(NodeKind.NEW, pos,
+                StructuralHash.of(NodeKind.NEW, type));
         this.type = type;
     }
 
@@ -246,135 +347,191 @@ class New extends Expression {
         return visitor.visit(this);
     }
 }
-class If extends Expression {
-    Expression cond;
-    Expression thenBranch;
-    Expression elseBranch;
+final class If extends Expression {
+    final Expression cond;
+    final Expression thenBranch;
+    final Expression elseBranch;
 
     If(Expression cond,
        Expression thenBranch,
        Expression elseBranch,
-       Token start) {
-        super(start);
+       long pos) {
+        super(NodeKind.IF, pos,
+                StructuralHash.of(NodeKind.IF, StructuralHash.of(cond), StructuralHash.of(thenBranch), StructuralHash.of(elseBranch)));
         this.cond = cond;
         this.thenBranch = thenBranch;
         this.elseBranch = elseBranch;
     }
 
+    If withCond(Expression cond) {
+        return cond == this.cond ? this : new If(cond, thenBranch, elseBranch, pos);
+    }
+    If withThenBranch(Expression thenBranch) {
+        return thenBranch == this.thenBranch ? this : new If(cond, thenBranch, elseBranch, pos);
+    }
+    If withElseBranch(Expression elseBranch) {
+        return elseBranch == this.elseBranch ? this : new If(cond, thenBranch, elseBranch, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class While extends Expression {
-    Expression cond;
-    Expression expr;
+final class While extends Expression {
+    final Expression cond;
+    final Expression expr;
 
-    While(Expression cond, Expression expr, Token start) {
-        super(start);
+    While(Expression cond, Expression expr, long pos) {
+        super(NodeKind.WHILE, pos,
+                StructuralHash.of(NodeKind.WHILE, StructuralHash.of(cond), StructuralHash.of(expr)));
         this.cond = cond;
         this.expr = expr;
     }
 
+    While withCond(Expression cond) {
+        return cond == this.cond ? this : new While(cond, expr, pos);
+    }
+    While withExpr(Expression expr) {
+        return expr == this.expr ? this : new While(cond, expr, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class Block extends Expression {
-    LinkedList<Expression> expr;
+final class Block extends Expression {
+    final List<Expression> expr;
 
-    Block(LinkedList<Expression> expr, Token start) {
-        super(start);
+    Block(List<Expression> expr, long pos) {
+        super(NodeKind.BLOCK, pos,
+                StructuralHash.of(NodeKind.BLOCK, StructuralHash.of(expr)));
         this.expr = expr;
     }
 
+    Block withExpr(List<Expression> expr) {
+        return expr == this.expr ? this : new Block(expr, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class CallMethod extends Expression {
-    Expression expr;
-    Token type;
-    Token name;
-    LinkedList<Expression>args;
-
-    CallMethod (Expression expr, Token name, Token type,LinkedList<Expression> args, Token start) {
-        super(start);
+final class CallMethod extends Expression {
+    final Expression expr;
+    final int type;
+    final int name;
+    final List<Expression> args;
+
+    CallMethod (Expression expr, int name, int type, List<Expression> args, long pos) {
+        super(NodeKind.CALL_METHOD, pos,
+                StructuralHash.of(NodeKind.CALL_METHOD, StructuralHash.of(expr), name, type, StructuralHash.of(args)));
         this.expr = expr;
         this.name = name;
         this.type = type;
         this.args = args;
     }
 
+    CallMethod withExpr(Expression expr) {
+        return expr == this.expr ? this : new CallMethod(expr, name, type, args, pos);
+    }
+    CallMethod withArgs(List<Expression> args) {
+        return args == this.args ? this : new CallMethod(expr, name, type, args, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class CallFunction extends Expression {
-    Token name;
-    LinkedList<Expression>expr;
+final class CallFunction extends Expression {
+    final int name;
+    final List<Expression> expr;
 
-    CallFunction (Token name, LinkedList<Expression> expr, Token start) {
-        super(start);
+    CallFunction (int name, List<Expression> expr, long pos) {
+        super(NodeKind.CALL_FUNCTION, pos,
+                StructuralHash.of(NodeKind.CALL_FUNCTION, name, StructuralHash.of(expr)));
         this.name = name;
         this.expr = expr;
     }
 
+    CallFunction withExpr(List<Expression> expr) {
+        return expr == this.expr ? this : new CallFunction(name, expr, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class LetVar extends ASTNode{
-    Token name;
-    Token type;
-    Expression expr;
-
-    public LetVar(Token name, Token type, Expression expr) {
+final class LetVar extends ASTNode{
+    final int name;
+    final int type;
+    final Expression expr;
+
+    public LetVar(int name, int type, Expression expr, long pos) {
+        super(NodeKind.LET_VAR, pos,
+                StructuralHash.of(NodeKind.LET_VAR, name, type, StructuralHash.of(expr)));
         this.name = name;
         this.type = type;
         this.expr = expr;
     }
+    LetVar withExpr(Expression expr) {
+        return expr == this.expr ? this : new LetVar(name, type, expr, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class Let extends Expression {
-    LinkedList<LetVar> defs;
-    Expression body;
+final class Let extends Expression {
+    final List<LetVar> defs;
+    final Expression body;
 
-    public Let(LinkedList<LetVar> defs, Expression body, Token start) {
-        super(start);
+    public Let(List<LetVar> defs, Expression body, long pos) {
+        super(NodeKind.LET, pos,
+                StructuralHash.of(NodeKind.LET, StructuralHash.of(defs), StructuralHash.of(body)));
         this.defs = defs;
         this.body = body;
     }
 
+    Let withDefs(List<LetVar> defs) {
+        return defs == this.defs ? this : new Let(defs, body, pos);
+    }
+    Let withBody(Expression body) {
+        return body == this.body ? this : new Let(defs, body, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class CaseBranch extends ASTNode{
-    Token name;
-    Token type;
-    Expression expr;
-
-    public CaseBranch(Token name, Token type, Expression expr) {
+final class CaseBranch extends ASTNode{
+    final int name;
+    final int type;
+    final Expression expr;
+
+    public CaseBranch(int name, int type, Expression expr, long pos) {
+        super(NodeKind.CASE_BRANCH, pos,
+                StructuralHash.of(NodeKind.CASE_BRANCH, name, type, StructuralHash.of(expr)));
         this.name = name;
         this.type = type;
         this.expr = expr;
     }
+    CaseBranch withExpr(Expression expr) {
+        return expr == this.expr ? this : new CaseBranch(name, type, expr, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
 }
-class Case extends Expression {
-    Expression cond;
-    LinkedList<CaseBranch> branches;
+final class Case extends Expression {
+    final Expression cond;
+    final List<CaseBranch> branches;
 
-    public Case(Expression cond, LinkedList<CaseBranch> branches, Token start) {
-        super(start);
+    public Case(Expression cond, List<CaseBranch> branches, long pos) {
+        super(NodeKind.CASE, pos,
+                StructuralHash.of(NodeKind.CASE, StructuralHash.of(cond), StructuralHash.of(branches)));
         this.cond = cond;
         this.branches = branches;
     }
 
+    Case withCond(Expression cond) {
+        return cond == this.cond ? this : new Case(cond, branches, pos);
+    }
+    Case withBranches(List<CaseBranch> branches) {
+        return branches == this.branches ? this : new Case(cond, branches, pos);
+    }
     public <T> T accept(ASTVisitor<T> visitor) {
         return visitor.visit(this);
     }
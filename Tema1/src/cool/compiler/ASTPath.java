@@ -0,0 +1,55 @@
+package cool.compiler;
+
+import java.util.Arrays;
+
+// A node's position in a tree, as the child indexes (see ASTChildren) that
+// lead to it from the root. Used to rewrite trees persistently: replacing a
+// node copies only its ancestors, and every other subtree is shared between
+// the old and the new tree, so several passes or speculative rewrites can
+// work on versions of the same AST at once.
+final class ASTPath {
+    private final int[] indexes;
+
+    private ASTPath(int[] indexes) {
+        this.indexes = indexes;
+    }
+
+    static ASTPath of(int... indexes) {
+        return new ASTPath(indexes.clone());
+    }
+
+    int length() {
+        return indexes.length;
+    }
+
+    ASTPath child(int index) {
+        var longer = Arrays.copyOf(indexes, indexes.length + 1);
+        longer[indexes.length] = index;
+        return new ASTPath(longer);
+    }
+
+    ASTNode get(ASTNode root) {
+        var node = root;
+        for (int index : indexes)
+            node = ASTChildren.get(node, index);
+        return node;
+    }
+
+    // Returns a new root in which the node at this path is replaced; the
+    // original tree is left unchanged. Each ancestor is copied through the
+    // with* method of the field that holds the path, see
+    // ASTChildren.withChild.
+    ASTNode replace(ASTNode root, ASTNode replacement) {
+        var ancestors = new ASTNode[indexes.length];
+        var node = root;
+        for (int i = 0; i < indexes.length; i++) {
+            ancestors[i] = node;
+            node = ASTChildren.get(node, indexes[i]);
+        }
+
+        var updated = replacement;
+        for (int i = indexes.length - 1; i >= 0; i--)
+            updated = ASTChildren.withChild(ancestors[i], indexes[i], updated);
+        return updated;
+    }
+}
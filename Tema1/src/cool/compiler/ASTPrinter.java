@@ -0,0 +1,359 @@
+package cool.compiler;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+// Prints the indented tree dump of an AST. Lines are collected in a large
+// buffer, with indentation copied from a precomputed run of spaces, and the
+// buffer is written to the output stream in big blocks, instead of going
+// through the synchronized PrintStream once per indent level and line.
+//
+// In parallel mode, each class is rendered into its own buffer on the worker
+// pool, and the buffers are appended to the output buffer in class order, so
+// the output is identical to the sequential dump and is still written in
+// blocks of the same size.
+class ASTPrinter implements ASTVisitor<Void> {
+    private static final int FLUSH_THRESHOLD = 1 << 16;
+    private static final String NEWLINE = System.lineSeparator();
+
+    // Null when only rendering into the buffer (see renderClass).
+    private final PrintStream out;
+    private final StringBuilder buffer = new StringBuilder(FLUSH_THRESHOLD + 1024);
+    private String indents = "  ".repeat(32);
+    private int indent = 0;
+    private SymbolTable symbols;
+
+    ASTPrinter(PrintStream out) {
+        this.out = out;
+    }
+
+    void print(Prog prog) {
+        prog.accept(this);
+        flush();
+    }
+
+    void printParallel(Prog prog) {
+        symbols = prog.symbols;
+        printIndent("program");
+
+        // At most a few classes per worker are rendered ahead of the one
+        // being written, to bound the memory held by finished buffers.
+        var classes = prog.classes;
+        int window = 4 * Workers.PARALLELISM;
+        var pending = new ArrayDeque<CompletableFuture<StringBuilder>>();
+        int next = 0;
+        while (next < classes.size() || !pending.isEmpty()) {
+            while (next < classes.size() && pending.size() < window) {
+                var cl = classes.get(next++);
+                pending.add(CompletableFuture.supplyAsync(() -> renderClass(cl, prog.symbols), Workers.POOL));
+            }
+            buffer.append(pending.remove().join());
+            if (buffer.length() >= FLUSH_THRESHOLD)
+                flush();
+        }
+        flush();
+    }
+
+    // Renders one class at indent level 1, as it appears in the whole dump.
+    private static StringBuilder renderClass(ClassRule cl, SymbolTable symbols) {
+        var printer = new ASTPrinter(null);
+        printer.symbols = symbols;
+        printer.indent = 1;
+        cl.accept(printer);
+        return printer.buffer;
+    }
+
+    @Override
+    public Void visit(Prog prog) {
+        symbols = prog.symbols;
+        printIndent("program");
+        indent++;
+        for (var cl : prog.classes) {
+            cl.accept(this);
+        }
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(ClassRule cl) {
+        printIndent("class");
+        indent++;
+        printIndent(symbols.name(cl.type));
+        if (cl.inheritsType != SymbolTable.NONE)
+            printIndent(symbols.name(cl.inheritsType));
+        if (cl.body != null) {
+            for (var f : cl.body)
+                f.accept(this);
+        }
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(Formal formal) {
+        printIndent("formal");
+        indent++;
+        printIndent(symbols.name(formal.name));
+        printIndent(symbols.name(formal.type));
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(Method method) {
+        printIndent("method");
+        indent++;
+        printIndent(symbols.name(method.name));
+        for(var f : method.formals) {
+            f.accept(this);
+        }
+        printIndent(symbols.name(method.type));
+        if (method.expr != null)
+            method.expr.accept(this);
+        indent--;
+        return  null;
+    }
+
+    @Override
+    public Void visit(Atribut atribut) {
+        printIndent("attribute");
+        indent++;
+        printIndent(symbols.name(atribut.name));
+        printIndent(symbols.name(atribut.type));
+        if (atribut.expr != null)
+            atribut.expr.accept(this);
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(Int integer) {
+        printIndent(symbols.name(integer.value));
+        return null;
+    }
+
+    @Override
+    public Void visit(Bool bool) {
+        printIndent(symbols.name(bool.value));
+        return null;
+    }
+
+    @Override
+    public Void visit(Str str) {
+        printIndent(symbols.name(str.value));
+        return null;
+    }
+
+    @Override
+    public Void visit(Id id) {
+        printIndent(symbols.name(id.name));
+        return null;
+    }
+
+    @Override
+    public Void visit(MultDiv multDiv) {
+        printIndent(symbols.name(multDiv.op));
+        indent++;
+        multDiv.left.accept(this);
+        multDiv.right.accept(this);
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(PlusMinus plusMinus) {
+        printIndent(symbols.name(plusMinus.sign));
+        indent++;
+        plusMinus.left.accept(this);
+        plusMinus.right.accept(this);
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(Parantheses parantheses) {
+        parantheses.expr.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(UnaryMinus unaryMinus) {
+        printIndent("~");
+        indent++;
+        unaryMinus.expr.accept(this);
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(Relational relational) {
+        printIndent(symbols.name(relational.op));
+        indent++;
+        relational.left.accept(this);
+        relational.right.accept(this);
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(Not not) {
+        printIndent("not");
+        indent++;
+        not.expr.accept(this);
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(Assign assign) {
+        printIndent("<-");
+        indent++;
+        printIndent(symbols.name(assign.name));
+        assign.expr.accept(this);
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(IsVoid isVoid) {
+        printIndent("isvoid");
+        indent++;
+        isVoid.expr.accept(this);
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(New newRule) {
+        printIndent("new");
+        indent++;
+        printIndent(symbols.name(newRule.type));
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(If ifRule) {
+        printIndent("if");
+        indent++;
+        ifRule.cond.accept(this);
+        ifRule.thenBranch.accept(this);
+        ifRule.elseBranch.accept(this);
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(While whileRule) {
+        printIndent("while");
+        indent++;
+        whileRule.cond.accept(this);
+        whileRule.expr.accept(this);
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(Block block) {
+        printIndent("block");
+        indent++;
+        for(var e : block.expr) {
+            e.accept(this);
+        }
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(CallMethod callMethod) {
+        printIndent(".");
+        indent++;
+        callMethod.expr.accept(this);
+        if (callMethod.type != SymbolTable.NONE)
+            printIndent(symbols.name(callMethod.type));
+        printIndent(symbols.name(callMethod.name));
+        for (var arg : callMethod.args) {
+            arg.accept(this);
+        }
+        indent--;
+
+        return null;
+    }
+
+    @Override
+    public Void visit(CallFunction callFunction) {
+        printIndent("implicit dispatch");
+        indent++;
+        printIndent(symbols.name(callFunction.name));
+        for (var e : callFunction.expr) {
+            e.accept(this);
+        }
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(LetVar letVar) {
+        printIndent("local");
+        indent++;
+        printIndent(symbols.name(letVar.name));
+        printIndent(symbols.name(letVar.type));
+        if(letVar.expr != null)
+            letVar.expr.accept(this);
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(Let letRule) {
+        printIndent("let");
+        indent++;
+        for (var d : letRule.defs) {
+            d.accept(this);
+        }
+        if (letRule.body != null)
+            letRule.body.accept(this);
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(CaseBranch caseBranch) {
+        printIndent("case branch");
+        indent++;
+        printIndent(symbols.name(caseBranch.name));
+        printIndent(symbols.name(caseBranch.type));
+        caseBranch.expr.accept(this);
+        indent--;
+        return null;
+    }
+
+    @Override
+    public Void visit(Case caseRule) {
+        printIndent("case");
+        indent++;
+        caseRule.cond.accept(this);
+        for (var b : caseRule.branches) {
+            b.accept(this);
+        }
+        indent--;
+        return null;
+    }
+
+    private void printIndent(String str) {
+        int width = 2 * indent;
+        if (width > indents.length())
+            indents = " ".repeat(2 * width);
+        buffer.append(indents, 0, width).append(str).append(NEWLINE);
+        if (out != null && buffer.length() >= FLUSH_THRESHOLD)
+            flush();
+    }
+
+    private void flush() {
+        out.append(buffer);
+        buffer.setLength(0);
+        out.flush();
+    }
+}
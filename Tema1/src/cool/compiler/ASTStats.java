@@ -0,0 +1,122 @@
+package cool.compiler;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+// Node counts and memory footprint of an AST, printed by --ast-stats.
+//
+// Retained sizes are estimates for a 64-bit HotSpot JVM with compressed
+// oops: a 12-byte object header, 4-byte references, and objects aligned to
+// 8 bytes. The bytes of a node include the lists it owns (body, formals,
+// args etc.). Nodes shared through hash-consing are counted once.
+class ASTStats {
+    private static final int HEADER = 12;
+    private static final int REFERENCE = 4;
+    // kind reference, packed position and structural hash
+    private static final int NODE_FIELDS = REFERENCE + 8 + 4;
+
+    final long[] counts = new long[NodeKind.VALUES.length];
+    final long[] bytes = new long[NodeKind.VALUES.length];
+    int maxDepth;
+    long innerNodes;
+    long children;
+    int symbolCount;
+    long symbolBytes;
+
+    static ASTStats of(Prog prog) {
+        var stats = new ASTStats();
+        Set<ASTNode> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        new ASTTraversal().onEnter((node, depth) -> {
+            if (!seen.add(node))
+                return ASTTraversal.Action.SKIP_CHILDREN;
+
+            int kind = node.kind.ordinal();
+            stats.counts[kind]++;
+            stats.bytes[kind] += shallowSize(node);
+            stats.maxDepth = Math.max(stats.maxDepth, depth);
+            int count = ASTChildren.count(node);
+            if (count > 0) {
+                stats.innerNodes++;
+                stats.children += count;
+            }
+            return ASTTraversal.Action.CONTINUE;
+        }).run(prog);
+
+        var symbols = prog.symbols;
+        stats.symbolCount = symbols.size();
+        for (int id = 0; id < stats.symbolCount; id++)
+            stats.symbolBytes += stringSize(symbols.name(id));
+        return stats;
+    }
+
+    void print(PrintStream out) {
+        out.printf("%-16s %10s %12s%n", "kind", "count", "bytes");
+        long totalCount = 0, totalBytes = 0;
+        for (var kind : NodeKind.VALUES) {
+            int k = kind.ordinal();
+            if (counts[k] == 0)
+                continue;
+            out.printf("%-16s %10d %12d%n", kind, counts[k], bytes[k]);
+            totalCount += counts[k];
+            totalBytes += bytes[k];
+        }
+        out.printf("%-16s %10d %12d%n", "total", totalCount, totalBytes);
+        out.printf("symbols: %d (%d bytes)%n", symbolCount, symbolBytes);
+        out.printf("max depth: %d%n", maxDepth);
+        out.printf("average fan-out: %.2f%n", innerNodes == 0 ? 0.0 : (double)children / innerNodes);
+    }
+
+    // Size of the node object itself plus the lists it owns.
+    static long shallowSize(ASTNode node) {
+        return switch (node.kind) {
+            case PROG -> object(3 * REFERENCE) + listSize(((Prog)node).classes);
+            case CLASS -> object(8 + REFERENCE) + listSize(((ClassRule)node).body);
+            case METHOD -> object(8 + 2 * REFERENCE) + listSize(((Method)node).formals);
+            case ATTRIBUTE, LET_VAR, CASE_BRANCH -> object(8 + REFERENCE);
+            case FORMAL -> object(8);
+            case INT, BOOL, STR, ID, NEW -> object(4);
+            case MULT_DIV, PLUS_MINUS, RELATIONAL -> object(4 + 2 * REFERENCE);
+            case PARANTHESES, UNARY_MINUS, NOT, IS_VOID -> object(REFERENCE);
+            case ASSIGN -> object(4 + REFERENCE);
+            case IF -> object(3 * REFERENCE);
+            case WHILE -> object(2 * REFERENCE);
+            case BLOCK -> object(REFERENCE) + listSize(((Block)node).expr);
+            case CALL_METHOD -> object(8 + 2 * REFERENCE) + listSize(((CallMethod)node).args);
+            case CALL_FUNCTION -> object(4 + REFERENCE) + listSize(((CallFunction)node).expr);
+            case LET -> object(2 * REFERENCE) + listSize(((Let)node).defs);
+            case CASE -> object(2 * REFERENCE) + listSize(((Case)node).branches);
+        };
+    }
+
+    private static long object(int fieldBytes) {
+        return align(HEADER + NODE_FIELDS + fieldBytes);
+    }
+
+    // Immutable lists from List.of: the empty list is shared, one or two
+    // elements are stored in fields, longer lists wrap an array.
+    private static long listSize(List<?> list) {
+        int size = list.size();
+        if (size == 0)
+            return 0;
+        if (size <= 2)
+            return align(HEADER + 2 * REFERENCE);
+        return align(HEADER + REFERENCE + 1) + align(HEADER + 4 + (long)size * REFERENCE);
+    }
+
+    // A compact (Latin-1) String and its byte array, plus the entry, boxed id
+    // and array slot that the symbol table keeps for it.
+    private static long stringSize(String s) {
+        long string = align(HEADER + REFERENCE + 4 + 1 + 1);
+        long array = align(HEADER + 4 + s.length());
+        long tableEntry = align(HEADER + 4 + 3 * REFERENCE) + align(HEADER + 4) + REFERENCE;
+        return string + array + tableEntry;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
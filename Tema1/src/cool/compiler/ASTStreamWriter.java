@@ -0,0 +1,316 @@
+package cool.compiler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Machine-readable AST dumps, selected with --format=json|sexp|binary.
+//
+// The tree is walked once with ASTTraversal, and every node is written out
+// when it is entered and closed when it is exited, so no document is built
+// in memory and arbitrarily deep trees cannot overflow the stack.
+//
+// Besides its children, each node kind has a fixed list of attributes (see
+// writeAttributes), written in that order. Absent optional attributes, like
+// the parent of a class, are left out in JSON, written as nil in
+// S-expressions and as a -1 length in the binary format.
+abstract class ASTStreamWriter {
+    private SymbolTable symbols;
+    private SourceMap sources;
+
+    static ASTStreamWriter create(String format, OutputStream out) {
+        return switch (format) {
+            case "json" -> new Json(out);
+            case "sexp" -> new Sexp(out);
+            case "binary" -> new Binary(out);
+            default -> throw new IllegalArgumentException("Unknown format: " + format);
+        };
+    }
+
+    static boolean isFormat(String format) {
+        return format.equals("json") || format.equals("sexp") || format.equals("binary");
+    }
+
+    void write(Prog prog) throws IOException {
+        symbols = prog.symbols;
+        sources = prog.sources;
+        var traversal = new ASTTraversal()
+            .onEnter((node, depth) -> {
+                try {
+                    enter(node, depth, ASTChildren.count(node));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return ASTTraversal.Action.CONTINUE;
+            })
+            .onExit((node, depth) -> {
+                try {
+                    exit(node, depth, ASTChildren.count(node));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return ASTTraversal.Action.CONTINUE;
+            });
+        try {
+            traversal.run(prog);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        finish();
+    }
+
+    // Called before the children of a node, with their number.
+    abstract void enter(ASTNode node, int depth, int children) throws IOException;
+
+    abstract void exit(ASTNode node, int depth, int children) throws IOException;
+
+    // Flushes everything written, without closing the output.
+    abstract void finish() throws IOException;
+
+    abstract void attribute(String key, String value) throws IOException;
+
+    void writeAttributes(ASTNode node) throws IOException {
+        switch (node.kind) {
+            case CLASS -> {
+                var cl = (ClassRule)node;
+                attribute("name", symbol(cl.type));
+                attribute("parent", symbol(cl.inheritsType));
+                attribute("file", sources.fileName(SourceMap.fileId(cl.pos)));
+            }
+            case METHOD -> {
+                var method = (Method)node;
+                attribute("name", symbol(method.name));
+                attribute("type", symbol(method.type));
+            }
+            case ATTRIBUTE -> {
+                var atribut = (Atribut)node;
+                attribute("name", symbol(atribut.name));
+                attribute("type", symbol(atribut.type));
+            }
+            case FORMAL -> {
+                var formal = (Formal)node;
+                attribute("name", symbol(formal.name));
+                attribute("type", symbol(formal.type));
+            }
+            case LET_VAR -> {
+                var letVar = (LetVar)node;
+                attribute("name", symbol(letVar.name));
+                attribute("type", symbol(letVar.type));
+            }
+            case CASE_BRANCH -> {
+                var branch = (CaseBranch)node;
+                attribute("name", symbol(branch.name));
+                attribute("type", symbol(branch.type));
+            }
+            case INT -> attribute("value", symbol(((Int)node).value));
+            case BOOL -> attribute("value", symbol(((Bool)node).value));
+            case STR -> attribute("value", symbol(((Str)node).value));
+            case ID -> attribute("name", symbol(((Id)node).name));
+            case MULT_DIV -> attribute("op", symbol(((MultDiv)node).op));
+            case PLUS_MINUS -> attribute("op", symbol(((PlusMinus)node).sign));
+            case RELATIONAL -> attribute("op", symbol(((Relational)node).op));
+            case ASSIGN -> attribute("name", symbol(((Assign)node).name));
+            case NEW -> attribute("type", symbol(((New)node).type));
+            case CALL_METHOD -> {
+                var call = (CallMethod)node;
+                attribute("name", symbol(call.name));
+                attribute("type", symbol(call.type));
+            }
+            case CALL_FUNCTION -> attribute("name", symbol(((CallFunction)node).name));
+            default -> { }
+        }
+    }
+
+    private String symbol(int id) {
+        return id == SymbolTable.NONE ? null : symbols.name(id);
+    }
+
+    static String kindName(NodeKind kind) {
+        return kind.name().toLowerCase();
+    }
+
+    // A quoted string with JSON escapes, which S-expression readers accept
+    // too. COOL strings may hold control characters, and all of them are
+    // escaped, so a string never breaks a dump across lines.
+    static void writeString(Writer out, String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\t' -> out.write("\\t");
+                case '\r' -> out.write("\\r");
+                case '\b' -> out.write("\\b");
+                case '\f' -> out.write("\\f");
+                default -> {
+                    if (c < 0x20)
+                        out.write(String.format("\\u%04x", (int)c));
+                    else
+                        out.write(c);
+                }
+            }
+        }
+        out.write('"');
+    }
+
+    // One JSON document for the whole program:
+    // {"kind":"method","line":3,"column":5,"name":"main","type":"Int","children":[...]}
+    // Leaf nodes have no "children" member.
+    private static final class Json extends ASTStreamWriter {
+        private final Writer out;
+        // Whether the children list at each depth already has an element.
+        private boolean[] started = new boolean[64];
+
+        Json(OutputStream out) {
+            this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        }
+
+        @Override
+        void enter(ASTNode node, int depth, int children) throws IOException {
+            if (depth > 0) {
+                if (started[depth - 1])
+                    out.write(',');
+                started[depth - 1] = true;
+            }
+            out.write("{\"kind\":\"");
+            out.write(kindName(node.kind));
+            out.write("\",\"line\":");
+            out.write(Integer.toString(SourceMap.line(node.pos)));
+            out.write(",\"column\":");
+            out.write(Integer.toString(SourceMap.column(node.pos) + 1));
+            writeAttributes(node);
+            if (children == 0) {
+                out.write('}');
+                return;
+            }
+            out.write(",\"children\":[");
+            if (depth == started.length)
+                started = Arrays.copyOf(started, depth * 2);
+            started[depth] = false;
+        }
+
+        @Override
+        void exit(ASTNode node, int depth, int children) throws IOException {
+            if (children > 0)
+                out.write("]}");
+        }
+
+        @Override
+        void finish() throws IOException {
+            out.write('\n');
+            out.flush();
+        }
+
+        @Override
+        void attribute(String key, String value) throws IOException {
+            if (value == null)
+                return;
+            out.write(",\"");
+            out.write(key);
+            out.write("\":");
+            writeString(out, value);
+        }
+    }
+
+    // (kind attribute... child...), one line per class:
+    // (method "main" "Int" (block (call_function "out_int" (int "1"))))
+    private static final class Sexp extends ASTStreamWriter {
+        private final Writer out;
+
+        Sexp(OutputStream out) {
+            this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        }
+
+        @Override
+        void enter(ASTNode node, int depth, int children) throws IOException {
+            if (depth == 1)
+                out.write('\n');
+            else if (depth > 1)
+                out.write(' ');
+            out.write('(');
+            out.write(kindName(node.kind));
+            writeAttributes(node);
+        }
+
+        @Override
+        void exit(ASTNode node, int depth, int children) throws IOException {
+            out.write(')');
+        }
+
+        @Override
+        void finish() throws IOException {
+            out.write('\n');
+            out.flush();
+        }
+
+        @Override
+        void attribute(String key, String value) throws IOException {
+            out.write(' ');
+            if (value == null) {
+                out.write("nil");
+                return;
+            }
+            writeString(out, value);
+        }
+    }
+
+    // The stream starts with the bytes "CAST" and a version int, followed by
+    // one record per node, in preorder. Every record is an int length and
+    // then, big-endian:
+    //   byte kind (NodeKind ordinal), int child count, int line, int column,
+    //   per attribute: int length (-1 if absent) and the UTF-8 bytes.
+    // The length covers the node's own record only, not its subtree, which
+    // is not known until the subtree has been streamed: it lets a reader
+    // skip the attributes of a node. The child counts give the shape of the
+    // tree; to skip a whole subtree, a reader skips the node's record, then
+    // as many subtrees as it has children.
+    private static final class Binary extends ASTStreamWriter {
+        static final int VERSION = 1;
+
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+        private final DataOutputStream record = new DataOutputStream(recordBytes);
+
+        Binary(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        }
+
+        @Override
+        void enter(ASTNode node, int depth, int children) throws IOException {
+            if (depth == 0) {
+                out.writeBytes("CAST");
+                out.writeInt(VERSION);
+            }
+            recordBytes.reset();
+            record.writeByte(node.kind.ordinal());
+            record.writeInt(children);
+            record.writeInt(SourceMap.line(node.pos));
+            record.writeInt(SourceMap.column(node.pos) + 1);
+            writeAttributes(node);
+            out.writeInt(recordBytes.size());
+            recordBytes.writeTo(out);
+        }
+
+        @Override
+        void exit(ASTNode node, int depth, int children) {
+        }
+
+        @Override
+        void finish() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        void attribute(String key, String value) throws IOException {
+            if (value == null) {
+                record.writeInt(-1);
+                return;
+            }
+            var bytes = value.getBytes(StandardCharsets.UTF_8);
+            record.writeInt(bytes.length);
+            record.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package cool.compiler;
+
+import java.util.Arrays;
+
+// Reusable depth-first traversal engine. Instead of recursing through accept
+// once per nesting level, it walks the tree with an explicit stack, so
+// arbitrarily deep trees cannot overflow the Java stack. Children are reached
+// through ASTChildren, in print order.
+//
+// Hooks can be registered per node kind, to run before (enter) and after
+// (exit) the children of a node. Each hook decides how the walk goes on:
+// CONTINUE, SKIP_CHILDREN (only meaningful on enter) or STOP, which ends the
+// whole traversal. The stack arrays are kept between runs, so a walk
+// allocates nothing per node.
+//
+// A traversal object is not thread-safe; use one per thread.
+class ASTTraversal {
+    enum Action {
+        CONTINUE,
+        SKIP_CHILDREN,
+        STOP
+    }
+
+    interface Hook {
+        Action apply(ASTNode node, int depth);
+    }
+
+    private final Hook[] enterHooks = new Hook[NodeKind.VALUES.length];
+    private final Hook[] exitHooks = new Hook[NodeKind.VALUES.length];
+
+    // Stack of nodes being walked, with the index of the next child to visit
+    // and the number of children of each.
+    private ASTNode[] nodes = new ASTNode[64];
+    private int[] nextChild = new int[64];
+    private int[] childCount = new int[64];
+
+    ASTTraversal onEnter(NodeKind kind, Hook hook) {
+        enterHooks[kind.ordinal()] = hook;
+        return this;
+    }
+
+    ASTTraversal onExit(NodeKind kind, Hook hook) {
+        exitHooks[kind.ordinal()] = hook;
+        return this;
+    }
+
+    // Registers the same hook for every node kind.
+    ASTTraversal onEnter(Hook hook) {
+        Arrays.fill(enterHooks, hook);
+        return this;
+    }
+
+    ASTTraversal onExit(Hook hook) {
+        Arrays.fill(exitHooks, hook);
+        return this;
+    }
+
+    // Walks the subtree rooted at the given node. Returns false if a hook
+    // stopped the traversal.
+    boolean run(ASTNode root) {
+        int top = -1;
+        try {
+            switch (enter(root, 0)) {
+                case STOP:
+                    return false;
+                case SKIP_CHILDREN:
+                    return exit(root, 0) != Action.STOP;
+                default:
+                    top = push(root, -1);
+            }
+
+            while (top >= 0) {
+                var node = nodes[top];
+                int index = nextChild[top];
+                if (index < childCount[top]) {
+                    nextChild[top] = index + 1;
+                    var child = ASTChildren.get(node, index);
+                    int depth = top + 1;
+                    var action = enter(child, depth);
+                    if (action == Action.STOP)
+                        return false;
+                    if (action == Action.SKIP_CHILDREN || ASTChildren.count(child) == 0) {
+                        if (exit(child, depth) == Action.STOP)
+                            return false;
+                    } else {
+                        top = push(child, top);
+                    }
+                } else {
+                    nodes[top] = null;
+                    top--;
+                    if (exit(node, top + 1) == Action.STOP)
+                        return false;
+                }
+            }
+            return true;
+        } finally {
+            // Do not keep the tree reachable after an early exit.
+            Arrays.fill(nodes, 0, top + 1, null);
+        }
+    }
+
+    private Action enter(ASTNode node, int depth) {
+        var hook = enterHooks[node.kind.ordinal()];
+        return hook == null ? Action.CONTINUE : hook.apply(node, depth);
+    }
+
+    private Action exit(ASTNode node, int depth) {
+        var hook = exitHooks[node.kind.ordinal()];
+        return hook == null ? Action.CONTINUE : hook.apply(node, depth);
+    }
+
+    private int push(ASTNode node, int top) {
+        top++;
+        if (top == nodes.length) {
+            nodes = Arrays.copyOf(nodes, top * 2);
+            nextChild = Arrays.copyOf(nextChild, top * 2);
+            childCount = Arrays.copyOf(childCount, top * 2);
+        }
+        nodes[top] = node;
+        nextChild[top] = 0;
+        childCount[top] = ASTChildren.count(node);
+        return top;
+    }
+}
@@ -0,0 +1,67 @@
+package cool.compiler;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.Arrays;
+
+// Thin client of CompileServer, taking the same arguments as Compiler:
+//
+// java cool.compiler.CompileClient [--socket=PATH] <compiler arguments>
+//
+// The output of the compile is copied to stdout and stderr as it arrives.
+// If no server is listening, the compile runs in this process instead.
+public class CompileClient {
+    public static void main(String[] args) throws IOException {
+        var socket = CompileServer.defaultSocket();
+        if (args.length > 0 && args[0].startsWith("--socket=")) {
+            socket = Paths.get(args[0].substring("--socket=".length()));
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            Compiler.main(args);
+            return;
+        }
+
+        int status;
+        try (channel;
+             var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+             var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeUTF(Paths.get("").toAbsolutePath().toString());
+            out.writeUTF(Charset.defaultCharset().name());
+            out.writeInt(args.length);
+            for (var arg : args)
+                out.writeUTF(arg);
+            out.flush();
+
+            var buffer = new byte[1 << 16];
+            while (true) {
+                byte stream = in.readByte();
+                if (stream == CompileServer.EXIT) {
+                    status = in.readInt();
+                    break;
+                }
+                var target = stream == CompileServer.OUT ? System.out : System.err;
+                int length = in.readInt();
+                while (length > 0) {
+                    int n = in.readNBytes(buffer, 0, Math.min(length, buffer.length));
+                    if (n == 0)
+                        throw new EOFException();
+                    target.write(buffer, 0, n);
+                    length -= n;
+                }
+                target.flush();
+            }
+        }
+        if (status != 0)
+            System.exit(status);
+    }
+}
@@ -0,0 +1,175 @@
+package cool.compiler;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Compile daemon, so that repeated compiles do not each pay for JVM startup,
+// class loading and the warm-up of the ANTLR DFAs.
+//
+// java cool.compiler.CompileServer [--socket=PATH]
+//
+// It listens on a Unix domain socket, readable only by its owner, and runs
+// every request on its own thread, so a slow compile does not hold up the
+// others. Requests are sent by CompileClient:
+//   UTF string: working directory of the client, against which relative
+//       input files, the metrics file and the result cache are opened; the
+//       arguments themselves are passed on as they are, so file names in
+//       the output are those the client gave
+//   UTF string: charset of the client, in which the output is encoded
+//   int: argument count, then each argument as a UTF string
+// The compiler output comes back as it is produced, in frames of a byte
+// (OUT or ERR), an int length and the bytes, ended by an EXIT frame with an
+// int status: 0, or 1 if the compiler threw an exception.
+public class CompileServer {
+    static final byte OUT = 1;
+    static final byte ERR = 2;
+    static final byte EXIT = 0;
+
+    static Path defaultSocket() {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "coolc-" + System.getProperty("user.name") + ".sock");
+    }
+
+    public static void main(String[] args) throws IOException {
+        var socket = defaultSocket();
+        for (var arg : args) {
+            if (arg.startsWith("--socket="))
+                socket = Paths.get(arg.substring("--socket=".length()));
+            else {
+                System.err.println("Unknown option: " + arg);
+                return;
+            }
+        }
+
+        // A socket file is either that of a running server, which is left
+        // alone, or left by a server that did not shut down cleanly.
+        if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+            if (isListening(socket)) {
+                System.err.println("A compile server is already listening on " + socket);
+                return;
+            }
+            Files.delete(socket);
+        }
+
+        // Binding creates the socket file with the permissions of the umask,
+        // so it is bound in a directory that only the owner can enter, and
+        // only linked into its place once it is private itself. Unlike a
+        // rename, the link fails if another server got there first.
+        var absolute = socket.toAbsolutePath();
+        var privateDir = Files.createTempDirectory(absolute.getParent(), ".coolc",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        var bound = privateDir.resolve("socket");
+        var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(bound));
+            Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+            Files.createLink(absolute, bound);
+        } catch (FileAlreadyExistsException e) {
+            System.err.println("A compile server is already listening on " + socket);
+            server.close();
+            return;
+        } finally {
+            Files.deleteIfExists(bound);
+            Files.delete(privateDir);
+        }
+
+        var socketFile = socket;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(socketFile);
+            } catch (IOException e) {
+                // Nothing left to do about it.
+            }
+        }));
+        System.err.println("Listening on " + socket);
+
+        // Virtual threads would fit here, but need Java 21; idle pooled
+        // threads are cheap enough for local clients.
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(null, runnable, "compile-request", Compiler.STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        });
+        while (true) {
+            var channel = server.accept();
+            executor.execute(() -> handle(channel));
+        }
+    }
+
+    private static boolean isListening(Path socket) {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void handle(SocketChannel channel) {
+        try (channel;
+             var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+             var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            var workingDirectory = Paths.get(in.readUTF());
+            var charset = Charset.forName(in.readUTF());
+            var args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++)
+                args[i] = in.readUTF();
+
+            var stdout = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, OUT), 1 << 16),
+                    false, charset);
+            var stderr = new PrintStream(new FrameOutputStream(out, ERR), true, charset);
+            int status = 0;
+            try {
+                new Compiler(stdout, stderr, charset, workingDirectory).run(args);
+            } catch (Exception | StackOverflowError e) {
+                e.printStackTrace(stderr);
+                status = 1;
+            }
+            stdout.flush();
+            stderr.flush();
+            synchronized (out) {
+                out.writeByte(EXIT);
+                out.writeInt(status);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away; there is nobody to report to.
+        }
+    }
+
+    // Sends everything written to it as frames of one stream. The two
+    // streams of a request share the connection, so frames are written
+    // whole, under its lock.
+    private static final class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte stream;
+
+        FrameOutputStream(DataOutputStream out, byte stream) {
+            this.out = out;
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            synchronized (out) {
+                out.writeByte(stream);
+                out.writeInt(len);
+                out.write(b, off, len);
+                out.flush();
+            }
+        }
+    }
+}
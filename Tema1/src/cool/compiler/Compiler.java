@@ -7,100 +7,201 @@ import cool.lexer.*;
 import cool.parser.*;
 
 import java.io.*;
-import java.util.LinkedList;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.GZIPOutputStream;
 
 
 public class Compiler {
     // Annotates class nodes with the names of files where they are defined.
-    public static ParseTreeProperty<String> fileNames = new ParseTreeProperty<>();
+    public ParseTreeProperty<String> fileNames = new ParseTreeProperty<>();
+
+    // Streams for the output and the diagnostics of this compilation. All
+    // the state of a compilation belongs to its Compiler object, so several
+    // can run at the same time, e.g. from a test runner.
+    private final PrintStream out;
+    private final PrintStream err;
+    // Charset in which the two streams encode text.
+    private final Charset charset;
+    // Directory against which relative paths in the arguments are opened.
+    // The paths themselves are kept as given, since file names are part of
+    // the output.
+    private final Path workingDirectory;
+
+    public Compiler(PrintStream out, PrintStream err) {
+        this(out, err, Charset.defaultCharset());
+    }
+
+    public Compiler(PrintStream out, PrintStream err, Charset charset) {
+        this(out, err, charset, Paths.get(""));
+    }
+
+    public Compiler(PrintStream out, PrintStream err, Charset charset, Path workingDirectory) {
+        this.out = out;
+        this.err = err;
+        this.charset = charset;
+        this.workingDirectory = workingDirectory;
+    }
+
+    // Stack size of the threads that compile. The parser, the AST builder
+    // and the passes over the AST recurse at least once per nesting level of
+    // an expression, so deeply nested parentheses or long chains of binary
+    // operators (1 + 1 + ... + 1) overflow the default stack of a thread.
+    // Only the part of the stack actually used is committed.
+    public static final long STACK_SIZE = 256L << 20;
 
     public static void main(String[] args) throws IOException {
-        if (args.length == 0) {
-            System.err.println("No file(s) given");
+        var task = new FutureTask<Void>(() -> {
+            new Compiler(System.out, System.err).run(args);
+            return null;
+        });
+        new Thread(null, task, "compile", STACK_SIZE).start();
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            throw (Error)e.getCause();
+        }
+    }
+
+    public void run(String[] args) throws IOException {
+        var options = CompilerOptions.parse(args, err);
+        if (options == null)
+            return;
+        if (options.files.isEmpty()) {
+            err.println("No file(s) given");
+            return;
+        }
+        if (new HashSet<>(options.files).size() > SourceMap.MAX_FILES) {
+            err.println("Too many files, at most " + SourceMap.MAX_FILES + " can be compiled together");
             return;
         }
+        if (options.metricsPort >= 0)
+            CompilerMetrics.serve(options.metricsPort);
+
+        long start = System.nanoTime();
+        var halted = true;
+        try {
+            // Timings differ from one run to the next, so they cannot be
+            // replayed.
+            if (options.resultCache != null && !options.timePhases)
+                halted = !compileCached(options);
+            else
+                halted = !compile(options, null);
+        } finally {
+            CompilerMetrics.compiles.increment();
+            if (halted)
+                CompilerMetrics.failedCompiles.increment();
+            CompilerMetrics.compileLatency.record(System.nanoTime() - start);
+        }
+        if (options.metricsFile != null)
+            CompilerMetrics.writeTo(workingDirectory.resolve(options.metricsFile));
+    }
+
+    // Replays the output of an identical earlier compile from the result
+    // cache, or compiles, passing the output on, and records it.
+    private boolean compileCached(CompilerOptions options) throws IOException {
+        var cache = ResultCache.open(workingDirectory.resolve(options.resultCache), options.resultCacheSize);
+        // The inputs are read once, so the key is that of exactly the
+        // contents that are compiled, even if a file changes meanwhile.
+        var contents = new byte[options.files.size()][];
+        for (int i = 0; i < contents.length; i++)
+            contents[i] = readSource(options.files.get(i));
+        var key = ResultCache.key(options, charset, contents);
+        var entry = cache.lookup(key);
+        if (entry != null) {
+            CompilerMetrics.resultCacheHits.increment();
+            entry.replay(out, err);
+            return !entry.halted;
+        }
+
+        CompilerMetrics.resultCacheMisses.increment();
+        var recording = new ResultCache.Recording(out, err, charset);
+        var succeeded = new Compiler(recording.out, recording.err, charset, workingDirectory)
+                .compile(options, contents);
+        cache.store(key, recording, !succeeded);
+        return succeeded;
+    }
+
+    // Returns false if compilation halted because of errors. The contents of
+    // the input files are read as they are needed, unless already given.
+    private boolean compile(CompilerOptions options, byte[][] contents) throws IOException {
+        var fileCount = options.files.size();
+        var timer = new PhaseTimer(options.timePhases, options.files);
         
-        CoolLexer lexer = null;
-        CommonTokenStream tokenStream = null;
-        CoolParser parser = null;
-        ParserRuleContext globalTree = null;
+        var frontEnd = new FrontEnd(timer, options.timePhases, err::println);
+
+        // Parse tree of each input file, or null if its AST was loaded from
+        // a .coolast artifact instead.
+        var trees = new CoolParser.ProgramContext[fileCount];
+        var loaded = new Prog[fileCount];
+        // Checksums of the input files, when the AST cache is enabled.
+        var checksums = new SourceChecksum[fileCount];
+
+        // Names of the input files and interned symbols, referenced by the
+        // positions and symbol ids stored in the AST.
+        var sources = new SourceMap();
+        var symbols = new SymbolTable();
         
+        // Flight recorder events of the input files, committed once their
+        // ASTs are built.
+        var fileEvents = new FileEvent[fileCount];
+
+        // Tree dump of the classes parsed so far, in dump-only mode.
+        var dump = options.dumpOnly ? new StringBuilder() : null;
+
         // True if any lexical or syntax errors occur.
         boolean lexicalSyntaxErrors = false;
         
-        // Parse each input file and build one big parse tree out of
-        // individual parse trees.
-        for (var fileName : args) {
-            var input = CharStreams.fromFileName(fileName);
-            
-            // Lexer
-            if (lexer == null)
-                lexer = new CoolLexer(input);
-            else
-                lexer.setInputStream(input);
-
-            // Token stream
-            if (tokenStream == null)
-                tokenStream = new CommonTokenStream(lexer);
-            else
-                tokenStream.setTokenSource(lexer);
-                
-
-            // Test lexer only.
-           /* tokenStream.fill();
-            List<Token> tokens = tokenStream.getTokens();
-            tokens.stream().forEach(token -> {
-                var text = token.getText();
-                var name = CoolLexer.VOCABULARY.getSymbolicName(token.getType());
-                
-                System.out.println(text + " : " + name);
-                //System.out.println(token);
-            });*/
-
-            
-            // Parser
-            if (parser == null)
-                parser = new CoolParser(tokenStream);
-            else
-                parser.setTokenStream(tokenStream);
-            
-            // Customized error listener, for including file names in error
-            // messages.
-            var errorListener = new BaseErrorListener() {
-                public boolean errors = false;
-                
-                @Override
-                public void syntaxError(Recognizer<?, ?> recognizer,
-                                        Object offendingSymbol,
-                                        int line, int charPositionInLine,
-                                        String msg,
-                                        RecognitionException e) {
-                    String newMsg = "\"" + new File(fileName).getName() + "\", line " +
-                                        line + ":" + (charPositionInLine + 1) + ", ";
-                    
-                    Token token = (Token)offendingSymbol;
-                    if (token.getType() == CoolLexer.ERROR)
-                        newMsg += "Lexical error: " + token.getText();
-                    else
-                        newMsg += "Syntax error: " + msg;
-                    
-                    System.err.println(newMsg);
-                    errors = true;
+        // Parse each input file, unless an up to date AST artifact exists.
+        for (int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
+            var fileName = options.files.get(fileIndex);
+            var fileId = sources.addFile(fileName);
+
+            var fileEvent = new FileEvent();
+            fileEvents[fileIndex] = fileEvent;
+            fileEvent.begin();
+
+            // The artifact is checked against the same bytes that are
+            // otherwise parsed.
+            timer.begin();
+            var bytes = contents != null ? contents[fileIndex] : readSource(fileName);
+            if (fileEvent.isEnabled()) {
+                fileEvent.file = fileName;
+                fileEvent.bytes = bytes.length;
+            }
+            if (options.astCache && !options.dumpOnly) {
+                checksums[fileIndex] = SourceChecksum.of(bytes);
+                loaded[fileIndex] = ASTFileReader.load(artifactPath(fileName),
+                        checksums[fileIndex], fileId, symbols, sources);
+                if (loaded[fileIndex] != null) {
+                    timer.end(fileIndex, PhaseTimer.Phase.READ);
+                    continue;
                 }
-            };
-            
-            parser.removeErrorListeners();
-            parser.addErrorListener(errorListener);
+            }
+            var input = decode(fileName, bytes);
+            timer.end(fileIndex, PhaseTimer.Phase.READ);
 
             // Actual parsing
-            var tree = parser.program();
-            if (globalTree == null)
-                globalTree = tree;
-            else
-                // Add the current parse tree's children to the global tree.
-                for (int i = 0; i < tree.getChildCount(); i++)
-                    globalTree.addAnyChild(tree.getChild(i));
+            var tree = frontEnd.parse(fileIndex, input, bytes.length,
+                    options.dumpOnly ? new ParseTreeDumper(frontEnd, dump) : null);
+            if (!options.dumpOnly)
+                trees[fileIndex] = tree;
                     
             // Annotate class nodes with file names, to be used later
             // in semantic error messages.
@@ -113,487 +214,105 @@ public class Compiler {
             }
             
             // Record any lexical or syntax errors.
-            lexicalSyntaxErrors |= errorListener.errors;
+            lexicalSyntaxErrors |= frontEnd.errorCount() > 0;
+            if (fileEvent.isEnabled()) {
+                fileEvent.tokens = frontEnd.tokens().size();
+                fileEvent.errors = frontEnd.errorCount();
+            }
         }
 
         // Stop before semantic analysis phase, in case errors occurred.
         if (lexicalSyntaxErrors) {
-            System.err.println("Compilation halted");
-            return;
+            err.println("Compilation halted");
+            for (var fileEvent : fileEvents)
+                fileEvent.commit();
+            timer.print(err);
+            return false;
         }
-        
-        // TODO Print tree
-        var astConstructionVisitor = new CoolParserBaseVisitor<ASTNode>() {
-            @Override
-            public ASTNode visitProgram(CoolParser.ProgramContext ctx) {
-                LinkedList<ClassRule> classes = new LinkedList<>();
-                for (var cl : ctx.classes) {
-                    classes.add((ClassRule)visit(cl));
-                }
-                return new Prog(classes, ctx.start);
-            }
-
-            @Override
-            public ASTNode visitParantheses(CoolParser.ParanthesesContext ctx) {
-                return new Parantheses((Expression)visit(ctx.e),ctx.start);
-            }
-
-            @Override
-            public ASTNode visitUnaryMinus(CoolParser.UnaryMinusContext ctx) {
-                return new UnaryMinus((Expression)visit(ctx.e), ctx.start);
-            }
-
-            @Override
-            public ASTNode visitClassRule(CoolParser.ClassRuleContext ctx) {
-                LinkedList<Feature> features = new LinkedList<>();
-                if (ctx.body != null) {
-                    for (var f : ctx.body)
-                        features.add((Feature) visit(f));
-                }
-
-                return new ClassRule(ctx.type, ctx.inheritsType, features, ctx.start);
-            }
-
-            @Override
-            public ASTNode visitFormal(CoolParser.FormalContext ctx) {
-                return new Formal(ctx.name, ctx.type, ctx.start);
-            }
-
-            @Override
-            public ASTNode visitMethod(CoolParser.MethodContext ctx) {
-                Expression expr = null;
-                LinkedList<Formal> formals =  new LinkedList<>();
-                if (ctx.e != null)
-                    expr = (Expression)visit(ctx.e);
-                if (ctx.formals != null) {
-                    for(var f : ctx.formals) {
-                        formals.add((Formal)visit(f));
-                    }
-                }
-                return new Method(ctx.name, formals, ctx.type, expr, ctx.start);
-            }
-
-            @Override
-            public ASTNode visitBool(CoolParser.BoolContext ctx) {
-                return new Bool(ctx.start);
-            }
-
-            @Override
-            public ASTNode visitAtribut(CoolParser.AtributContext ctx) {
-                Expression expr = null;
-                if (ctx.e != null)
-                    expr = (Expression)visit(ctx.e);
-                return new Atribut(ctx.name, ctx.type, expr, ctx.start);
-            }
-
-            @Override
-            public ASTNode visitInt(CoolParser.IntContext ctx) {
-                return new Int(ctx.start);
-            }
-
-            @Override
-            public ASTNode visitId(CoolParser.IdContext ctx) {
-                return new Id(ctx.start);
-            }
-
-            @Override
-            public ASTNode visitString(CoolParser.StringContext ctx) {
-                return new Str(ctx.start);
-            }
-
-            @Override
-            public ASTNode visitPlusMinus(CoolParser.PlusMinusContext ctx) {
-                return new PlusMinus((Expression)visit(ctx.left), ctx.op, (Expression)visit(ctx.right), ctx.start);
-            }
-
-            @Override
-            public ASTNode visitMultDiv(CoolParser.MultDivContext ctx) {
-                return new MultDiv((Expression)visit(ctx.left),ctx.op,(Expression)visit(ctx.right), ctx.start);
-            }
-
-            @Override
-            public ASTNode visitRelational(CoolParser.RelationalContext ctx) {
-                return new Relational((Expression)visit(ctx.left), ctx.op, (Expression)visit(ctx.right), ctx.start);
-            }
-
-            @Override
-            public ASTNode visitNot(CoolParser.NotContext ctx) {
-                return new Not((Expression)visit(ctx.e), ctx.start);
-            }
-
-            @Override
-            public ASTNode visitAssign(CoolParser.AssignContext ctx) {
-                return new Assign(ctx.name, (Expression)visit(ctx.e), ctx.start);
-            }
-
-            @Override
-            public ASTNode visitIsVoid(CoolParser.IsVoidContext ctx) {
-                return new IsVoid((Expression)visit(ctx.e), ctx.start);
-            }
-
-            @Override
-            public ASTNode visitNew(CoolParser.NewContext ctx) {
-                return new New(ctx.type, ctx.start);
-            }
-
-            @Override
-            public ASTNode visitIf(CoolParser.IfContext ctx) {
-                return new If((Expression)visit(ctx.cond), (Expression)visit(ctx.thenBranch),
-                        (Expression)visit(ctx.elseBranch), ctx.start);
-            }
-
-            @Override
-            public ASTNode visitLet(CoolParser.LetContext ctx) {
-                LinkedList<LetVar> defs = new LinkedList<>();
-                for (var e : ctx.defs) {
-                    defs.add((LetVar)visit(e));
-                }
-                return new Let(defs, (Expression)visit(ctx.body), ctx.start);
-            }
-
-            @Override
-            public ASTNode visitWhile(CoolParser.WhileContext ctx) {
-                return new While((Expression)visit(ctx.cond), (Expression)visit(ctx.e), ctx.start);
-            }
-
-            @Override
-            public ASTNode visitBlock(CoolParser.BlockContext ctx) {
-                LinkedList<Expression> expr = new LinkedList<>();
-                for (var e : ctx.e) {
-                    expr.add((Expression)visit(e));
-                }
-                return new Block(expr, ctx.start);
-            }
-
-            @Override
-            public ASTNode visitCallMethod(CoolParser.CallMethodContext ctx) {
-                LinkedList<Expression> args = new LinkedList<>();
-                for(var e : ctx.args) {
-                    args.add((Expression)visit(e));
-                }
-                return new CallMethod((Expression)visit(ctx.e1), ctx.name, ctx.type, args, ctx.start);
-            }
-
-            @Override
-            public ASTNode visitCaseBranch(CoolParser.CaseBranchContext ctx) {
-                return new CaseBranch(ctx.name, ctx.type, (Expression)visit(ctx.e));
-            }
-
-            @Override
-            public ASTNode visitCase(CoolParser.CaseContext ctx) {
-                LinkedList<CaseBranch> branches = new LinkedList<>();
-                for(var b : ctx.caseBranch()) {
-                    branches.add((CaseBranch)visit(b));
-                }
-                return new Case((Expression)visit(ctx.cond), branches, ctx.start);
-            }
-
-            @Override
-            public ASTNode visitCallFunction(CoolParser.CallFunctionContext ctx) {
-                LinkedList<Expression> expr = new LinkedList<>();
-                if (ctx.e != null)
-                    for (var e : ctx.e) {
-                        expr.add((Expression)visit(e));
-                    }
-                return new CallFunction(ctx.name, expr, ctx.start);
-            }
-
-            @Override
-            public ASTNode visitLetVar(CoolParser.LetVarContext ctx) {
-                Expression expr = null;
-                if (ctx.e != null) {
-                    expr = (Expression)visit(ctx.e);
-                }
-                return new LetVar(ctx.name, ctx.type, expr);
-            }
-        };
-        var ast = astConstructionVisitor.visit(globalTree);
-        var printVisitor = new ASTVisitor<Void>() {
-            int indent = 0;
-            @Override
-            public Void visit(Prog prog) {
-                printIndent("program");
-                indent++;
-                for (var cl : prog.classes) {
-                    cl.accept(this);
-                }
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(ClassRule cl) {
-                printIndent("class");
-                indent++;
-                printIndent(cl.type.getText());
-                if (cl.inheritsType != null)
-                    printIndent(cl.inheritsType.getText());
-                if (cl.body != null) {
-                    for (var f : cl.body)
-                        f.accept(this);
-                }
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(Formal formal) {
-                printIndent("formal");
-                indent++;
-                printIndent(formal.name.getText());
-                printIndent(formal.type.getText());
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(Method method) {
-                printIndent("method");
-                indent++;
-                printIndent(method.name.getText());
-                for(var f : method.formals) {
-                    f.accept(this);
-                }
-                printIndent(method.type.getText());
-                if (method.expr != null)
-                    method.expr.accept(this);
-                indent--;
-                return  null;
-            }
-
-            @Override
-            public Void visit(Atribut atribut) {
-                printIndent("attribute");
-                indent++;
-                printIndent(atribut.name.getText());
-                printIndent(atribut.type.getText());
-                if (atribut.expr != null)
-                    atribut.expr.accept(this);
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(Int integer) {
-                printIndent(integer.token.getText());
-                return null;
-            }
-
-            @Override
-            public Void visit(Bool bool) {
-                printIndent(bool.token.getText());
-                return null;
-            }
-
-            @Override
-            public Void visit(Str str) {
-                printIndent(str.token.getText());
-                return null;
-            }
-
-            @Override
-            public Void visit(Id id) {
-                printIndent(id.token.getText());
-                return null;
-            }
-
-            @Override
-            public Void visit(MultDiv multDiv) {
-                printIndent(multDiv.op.getText());
-                indent++;
-                multDiv.left.accept(this);
-                multDiv.right.accept(this);
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(PlusMinus plusMinus) {
-                printIndent(plusMinus.sign.getText());
-                indent++;
-                plusMinus.left.accept(this);
-                plusMinus.right.accept(this);
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(Parantheses parantheses) {
-                parantheses.expr.accept(this);
-                return null;
-            }
-
-            @Override
-            public Void visit(UnaryMinus unaryMinus) {
-                printIndent("~");
-                indent++;
-                unaryMinus.expr.accept(this);
-                indent--;
-                return null;
-            }
 
-            @Override
-            public Void visit(Relational relational) {
-                printIndent(relational.op.getText());
-                indent++;
-                relational.left.accept(this);
-                relational.right.accept(this);
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(Not not) {
-                printIndent("not");
-                indent++;
-                not.expr.accept(this);
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(Assign assign) {
-                printIndent("<-");
-                indent++;
-                printIndent(assign.name.getText());
-                assign.expr.accept(this);
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(IsVoid isVoid) {
-                printIndent("isvoid");
-                indent++;
-                isVoid.expr.accept(this);
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(New newRule) {
-                printIndent("new");
-                indent++;
-                printIndent(newRule.type.getText());
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(If ifRule) {
-                printIndent("if");
-                indent++;
-                ifRule.cond.accept(this);
-                ifRule.thenBranch.accept(this);
-                ifRule.elseBranch.accept(this);
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(While whileRule) {
-                printIndent("while");
-                indent++;
-                whileRule.cond.accept(this);
-                whileRule.expr.accept(this);
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(Block block) {
-                printIndent("block");
-                indent++;
-                for(var e : block.expr) {
-                    e.accept(this);
-                }
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(CallMethod callMethod) {
-                printIndent(".");
-                indent++;
-                callMethod.expr.accept(this);
-                if (callMethod.type != null)
-                    printIndent(callMethod.type.getText());
-                printIndent(callMethod.name.getText());
-                for (var arg : callMethod.args) {
-                    arg.accept(this);
-                }
-                indent--;
-
-                return null;
-            }
-
-            @Override
-            public Void visit(CallFunction callFunction) {
-                printIndent("implicit dispatch");
-                indent++;
-                printIndent(callFunction.name.getText());
-                for (var e : callFunction.expr) {
-                    e.accept(this);
-                }
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(LetVar letVar) {
-                printIndent("local");
-                indent++;
-                printIndent(letVar.name.getText());
-                printIndent(letVar.type.getText());
-                if(letVar.expr != null)
-                    letVar.expr.accept(this);
-                indent--;
-                return null;
-            }
-
-            @Override
-            public Void visit(Let letRule) {
-                printIndent("let");
-                indent++;
-                for (var d : letRule.defs) {
-                    d.accept(this);
-                }
-                if (letRule.body != null)
-                    letRule.body.accept(this);
-                indent--;
-                return null;
-            }
+        // Output channel of the dump, compressed if requested.
+        var output = options.gzip ? new GZIPOutputStream(out, 1 << 16) : null;
+
+        if (options.dumpOnly) {
+            for (var fileEvent : fileEvents)
+                fileEvent.commit();
+            timer.begin();
+            ParseTreeDumper.writeTo(output == null ? out : new PrintStream(output, false, charset), dump);
+            finishOutput(output);
+            timer.end(-1, PhaseTimer.Phase.PRINT);
+            timer.print(err);
+            return true;
+        }
+        
+        // Build the AST of each file and put the classes together, in the
+        // order of the input files.
+        var fileAsts = new ArrayList<Prog>(fileCount);
+        for (int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
+            var fileAst = loaded[fileIndex];
+            if (fileAst == null) {
+                timer.begin();
+                fileAst = ASTBuilder.build(trees[fileIndex], symbols, sources,
+                        sources.addFile(options.files.get(fileIndex)), options.hashCons);
+                timer.end(fileIndex, PhaseTimer.Phase.AST);
+                if (options.astCache)
+                    ASTFileWriter.write(artifactPath(options.files.get(fileIndex)),
+                            fileAst, checksums[fileIndex]);
+            }
+            var fileEvent = fileEvents[fileIndex];
+            fileEvent.end();
+            if (fileEvent.shouldCommit()) {
+                fileEvent.nodes = FileEvent.countNodes(fileAst);
+                fileEvent.commit();
+            }
+            fileAsts.add(fileAst);
+        }
+        var ast = CoolCompiler.link(fileAsts, symbols, sources);
+        if (options.astStats)
+            ASTStats.of(ast).print(err);
+
+        // The AST keeps no references to tokens, so the parse trees and token
+        // streams can be released before the later phases run.
+        fileNames = new ParseTreeProperty<>();
+        trees = null;
+        frontEnd = null;
+
+        timer.begin();
+        if (options.format.equals("text")) {
+            var printer = new ASTPrinter(output == null ? out : new PrintStream(output, false, charset));
+            if (options.parallelPrint)
+                printer.printParallel(ast);
+            else
+                printer.print(ast);
+        } else {
+            ASTStreamWriter.create(options.format, output == null ? out : output).write(ast);
+        }
+        finishOutput(output);
+        timer.end(-1, PhaseTimer.Phase.PRINT);
+        timer.print(err);
+        return true;
+    }
 
-            @Override
-            public Void visit(CaseBranch caseBranch) {
-                printIndent("case branch");
-                indent++;
-                printIndent(caseBranch.name.getText());
-                printIndent(caseBranch.type.getText());
-                caseBranch.expr.accept(this);
-                indent--;
-                return null;
-            }
+    private byte[] readSource(String fileName) throws IOException {
+        return Files.readAllBytes(workingDirectory.resolve(fileName));
+    }
 
-            @Override
-            public Void visit(Case caseRule) {
-                printIndent("case");
-                indent++;
-                caseRule.cond.accept(this);
-                for (var b : caseRule.branches) {
-                    b.accept(this);
-                }
-                indent--;
-                return null;
-            }
+    private String artifactPath(String fileName) {
+        return workingDirectory.resolve(ASTFileWriter.artifactPath(fileName)).toString();
+    }
 
+    // The characters of a source file, decoded as CharStreams.fromFileName
+    // does.
+    private static CharStream decode(String fileName, byte[] bytes) throws IOException {
+        return CharStreams.fromChannel(Channels.newChannel(new ByteArrayInputStream(bytes)),
+                StandardCharsets.UTF_8, 4096, CodingErrorAction.REPLACE, Paths.get(fileName).toString(),
+                bytes.length);
+    }
 
-            void printIndent(String str) {
-                for (int i = 0; i < indent; i++)
-                    System.out.print("  ");
-                System.out.println(str);
-            }
-        };
-        ast.accept(printVisitor);
+    // Writes the gzip trailer. The output stream itself is left open.
+    private void finishOutput(GZIPOutputStream output) throws IOException {
+        if (output != null) {
+            output.finish();
+            out.flush();
+        }
     }
 }
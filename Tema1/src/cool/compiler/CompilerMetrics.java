@@ -0,0 +1,165 @@
+package cool.compiler;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+// Cumulative counters and latency histograms of all compilations run in
+// this process, for processes that compile many times. They are updated
+// with LongAdder cells, so concurrent compilations do not contend, and can
+// be exported in the Prometheus text format, to a file (--metrics-file) or
+// on http://127.0.0.1:PORT/metrics (--metrics-port).
+final class CompilerMetrics {
+    static final LongAdder compiles = new LongAdder();
+    static final LongAdder failedCompiles = new LongAdder();
+    static final LongAdder files = new LongAdder();
+    static final LongAdder sourceBytes = new LongAdder();
+    static final LongAdder tokens = new LongAdder();
+    static final LongAdder lexicalErrors = new LongAdder();
+    static final LongAdder syntaxErrors = new LongAdder();
+    static final LongAdder resultCacheHits = new LongAdder();
+    static final LongAdder resultCacheMisses = new LongAdder();
+
+    static final Histogram compileLatency = new Histogram();
+    static final Histogram[] phaseLatency = new Histogram[PhaseTimer.Phase.values().length];
+
+    static {
+        for (int i = 0; i < phaseLatency.length; i++)
+            phaseLatency[i] = new Histogram();
+    }
+
+    private static HttpServer server;
+
+    private CompilerMetrics() {
+    }
+
+    // Latency histogram with log-linear buckets, as in HdrHistogram: each
+    // power of two from 1 us to about 69 s is split into four buckets, so
+    // the relative error of a bucket is at most 25%.
+    static final class Histogram {
+        private static final int SUB_BUCKETS = 4;
+        private static final int MIN_EXPONENT = 10;
+        private static final int MAX_EXPONENT = 36;
+        // Upper bounds in nanoseconds, inclusive.
+        private static final long[] BOUNDS = new long[(MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS + 1];
+
+        static {
+            BOUNDS[0] = 1L << MIN_EXPONENT;
+            for (int e = MIN_EXPONENT, i = 1; e < MAX_EXPONENT; e++)
+                for (int k = 1; k <= SUB_BUCKETS; k++)
+                    BOUNDS[i++] = (1L << e) + k * ((1L << e) / SUB_BUCKETS);
+        }
+
+        // One more bucket for values above the last bound.
+        private final LongAdder[] counts = new LongAdder[BOUNDS.length + 1];
+        private final LongAdder sum = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < counts.length; i++)
+                counts[i] = new LongAdder();
+        }
+
+        void record(long nanos) {
+            int index = Arrays.binarySearch(BOUNDS, nanos);
+            counts[index >= 0 ? index : -index - 1].increment();
+            sum.add(nanos);
+        }
+
+        private void write(StringBuilder out, String name, String labels) {
+            var prefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                cumulative += counts[i].sum();
+                out.append(name).append("_bucket").append(prefix).append("le=\"")
+                    .append(seconds(BOUNDS[i])).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += counts[BOUNDS.length].sum();
+            out.append(name).append("_bucket").append(prefix).append("le=\"+Inf\"} ")
+                .append(cumulative).append('\n');
+            var suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+            out.append(name).append("_sum").append(suffix).append(' ').append(seconds(sum.sum())).append('\n');
+            out.append(name).append("_count").append(suffix).append(' ').append(cumulative).append('\n');
+        }
+    }
+
+    static String exposition() {
+        var out = new StringBuilder(16 * 1024);
+        counter(out, "cool_compiles_total", "Compilations run.", compiles);
+        counter(out, "cool_compile_failures_total", "Compilations halted by errors.", failedCompiles);
+        counter(out, "cool_files_total", "Input files parsed.", files);
+        counter(out, "cool_source_bytes_total", "Bytes of parsed input files.", sourceBytes);
+        counter(out, "cool_tokens_total", "Tokens produced by the lexer.", tokens);
+        counter(out, "cool_lexical_errors_total", "Lexical errors reported.", lexicalErrors);
+        counter(out, "cool_syntax_errors_total", "Syntax errors reported.", syntaxErrors);
+        counter(out, "cool_result_cache_hits_total", "Compilations replayed from the result cache.",
+                resultCacheHits);
+        counter(out, "cool_result_cache_misses_total", "Compilations missing from the result cache.",
+                resultCacheMisses);
+
+        out.append("# HELP cool_compile_duration_seconds Wall time of whole compilations.\n");
+        out.append("# TYPE cool_compile_duration_seconds histogram\n");
+        compileLatency.write(out, "cool_compile_duration_seconds", "");
+
+        out.append("# HELP cool_phase_duration_seconds Wall time of compiler phases, per file.\n");
+        out.append("# TYPE cool_phase_duration_seconds histogram\n");
+        for (var phase : PhaseTimer.Phase.values())
+            phaseLatency[phase.ordinal()].write(out, "cool_phase_duration_seconds",
+                    "phase=\"" + phase.name().toLowerCase() + "\"");
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, LongAdder value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value.sum()).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    // Replaces the file atomically, so a scraper never reads half of it.
+    static void writeTo(Path path) throws IOException {
+        var temp = Files.createTempFile(path.toAbsolutePath().getParent(), ".metrics", ".tmp");
+        try {
+            Files.writeString(temp, exposition());
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Starts serving the metrics on the loopback interface, once per
+    // process. The server runs on a daemon thread, so it never keeps the
+    // JVM running: a one-shot compile exits when done, while a long-running
+    // process, like the compile server, keeps serving.
+    static synchronized void serve(int port) throws IOException {
+        if (server != null)
+            return;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            var body = exposition().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (var response = exchange.getResponseBody()) {
+                response.write(body);
+            }
+        });
+        // The dispatcher thread, which also runs the handler, inherits
+        // whether it is a daemon from the thread that starts the server.
+        var starter = new Thread(server::start, "metrics-start");
+        starter.setDaemon(true);
+        starter.start();
+        try {
+            starter.join();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package cool.compiler;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Command line options of the compiler. Arguments starting with "--" are
+// options; everything else is an input file.
+class CompilerOptions {
+    // Load ASTs of unchanged files from .coolast artifacts next to the
+    // sources, and write artifacts for the files that had to be parsed.
+    boolean astCache = false;
+
+    // Share structurally equal expression subtrees while building the AST.
+    boolean hashCons = false;
+
+    // Report node counts and the estimated memory footprint of the AST.
+    boolean astStats = false;
+
+    // Render the classes of the tree dump concurrently.
+    boolean parallelPrint = false;
+
+    // Output format of the AST: the indented text dump, or one of the
+    // ASTStreamWriter formats (json, sexp, binary).
+    String format = "text";
+
+    // Compress the output with gzip.
+    boolean gzip = false;
+
+    // Report the time and allocation of each compiler phase.
+    boolean timePhases = false;
+
+    // Export the cumulative metrics of the process (see CompilerMetrics) to
+    // this file after compiling, and serve them over HTTP on this port.
+    String metricsFile = null;
+    int metricsPort = -1;
+
+    // Print the tree dump straight from the parse tree, as each class is
+    // parsed, without building an AST. The other AST options do not apply.
+    boolean dumpOnly = false;
+
+    // Replay the output of identical earlier compiles from this directory,
+    // and record it there otherwise (see ResultCache), keeping the cached
+    // output within the given size.
+    String resultCache = null;
+    long resultCacheSize = 512L << 20;
+
+    List<String> files = new ArrayList<>();
+
+    // Returns null, after reporting the problem, for invalid arguments.
+    static CompilerOptions parse(String[] args, PrintStream err) {
+        var options = new CompilerOptions();
+        for (var arg : args) {
+            if (!arg.startsWith("--")) {
+                options.files.add(arg);
+                continue;
+            }
+
+            if (arg.startsWith("--format=")) {
+                options.format = arg.substring("--format=".length());
+                if (!options.format.equals("text") && !ASTStreamWriter.isFormat(options.format)) {
+                    err.println("Unknown format: " + options.format);
+                    return null;
+                }
+                continue;
+            }
+            if (arg.startsWith("--metrics-file=")) {
+                options.metricsFile = arg.substring("--metrics-file=".length());
+                continue;
+            }
+            if (arg.startsWith("--metrics-port=")) {
+                try {
+                    options.metricsPort = Integer.parseInt(arg.substring("--metrics-port=".length()));
+                } catch (NumberFormatException e) {
+                    err.println("Invalid port: " + arg);
+                    return null;
+                }
+                continue;
+            }
+
+            if (arg.startsWith("--result-cache=")) {
+                options.resultCache = arg.substring("--result-cache=".length());
+                continue;
+            }
+            if (arg.startsWith("--result-cache-size=")) {
+                try {
+                    options.resultCacheSize = Long.parseLong(arg.substring("--result-cache-size=".length())) << 20;
+                } catch (NumberFormatException e) {
+                    err.println("Invalid size in MB: " + arg);
+                    return null;
+                }
+                continue;
+            }
+
+            switch (arg) {
+                case "--ast-cache":
+                    options.astCache = true;
+                    break;
+                case "--hash-cons":
+                    options.hashCons = true;
+                    break;
+                case "--ast-stats":
+                    options.astStats = true;
+                    break;
+                case "--parallel-print":
+                    options.parallelPrint = true;
+                    break;
+                case "--gzip":
+                    options.gzip = true;
+                    break;
+                case "--time-phases":
+                    options.timePhases = true;
+                    break;
+                case "--dump-only":
+                    options.dumpOnly = true;
+                    break;
+                default:
+                    err.println("Unknown option: " + arg);
+                    return null;
+            }
+        }
+        if (options.dumpOnly && !options.format.equals("text")) {
+            err.println("--dump-only only supports the text format");
+            return null;
+        }
+        return options;
+    }
+}
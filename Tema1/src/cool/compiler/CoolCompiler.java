@@ -0,0 +1,250 @@
+package cool.compiler;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import cool.parser.CoolParser;
+
+import java.io.PrintStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+// Programmatic entry point of the compiler, for tools that keep sources in
+// memory (editors, test harnesses, the compile server) instead of handing
+// file names to the command line.
+//
+//   var result = new CoolCompiler().compile(Map.of("A.cl", text));
+//   if (result.succeeded())
+//       result.print(System.out);
+//   else
+//       result.diagnostics().forEach(System.err::println);
+//
+// A CoolCompiler holds only its immutable settings, and every call builds
+// its own lexer, parser, symbol table and source map, so one instance can
+// be used by any number of threads at once. The only state shared between
+// calls is the cumulative CompilerMetrics, which is made for it.
+//
+// The compile runs on the calling thread; sources with deeply nested
+// expressions need a thread with a stack of Compiler.STACK_SIZE.
+public final class CoolCompiler {
+    private final boolean hashCons;
+
+    public CoolCompiler() {
+        this(false);
+    }
+
+    // With hashCons, structurally equal subtrees of the AST are shared
+    // (see HashConsTable).
+    public CoolCompiler(boolean hashCons) {
+        this.hashCons = hashCons;
+    }
+
+    // A lexical or syntax error. Its string form is the line printed by the
+    // command line compiler.
+    public static final class Diagnostic {
+        public enum Kind {
+            LEXICAL,
+            SYNTAX
+        }
+
+        private final String file;
+        private final int line;
+        private final int column;
+        private final Kind kind;
+        private final String message;
+
+        Diagnostic(String file, int line, int column, Kind kind, String message) {
+            this.file = file;
+            this.line = line;
+            this.column = column;
+            this.kind = kind;
+            this.message = message;
+        }
+
+        public String file() {
+            return file;
+        }
+
+        public int line() {
+            return line;
+        }
+
+        // 1-based.
+        public int column() {
+            return column;
+        }
+
+        public Kind kind() {
+            return kind;
+        }
+
+        public String message() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "\"" + file + "\", line " + line + ":" + column + ", "
+                    + (kind == Kind.LEXICAL ? "Lexical error: " : "Syntax error: ") + message;
+        }
+    }
+
+    // Outcome of one compile: the AST of the whole program, unless there were
+    // errors, the diagnostics in the order they were found, and the wall time
+    // spent in each phase, summed over the sources.
+    public static final class Result {
+        private final Prog ast;
+        private final List<Diagnostic> diagnostics;
+        private final long readNanos, lexNanos, parseNanos, astNanos;
+
+        private Result(Prog ast, List<Diagnostic> diagnostics, PhaseTimer timer) {
+            this.ast = ast;
+            this.diagnostics = diagnostics;
+            readNanos = timer.wallNanos(PhaseTimer.Phase.READ);
+            lexNanos = timer.wallNanos(PhaseTimer.Phase.LEX);
+            parseNanos = timer.wallNanos(PhaseTimer.Phase.PARSE);
+            astNanos = timer.wallNanos(PhaseTimer.Phase.AST);
+        }
+
+        public boolean succeeded() {
+            return ast != null;
+        }
+
+        // The root of the AST, or null if the compile failed.
+        public ASTNode ast() {
+            return ast;
+        }
+
+        public List<Diagnostic> diagnostics() {
+            return diagnostics;
+        }
+
+        // Prints the tree dump of the AST, as the command line compiler does.
+        public void print(PrintStream out) {
+            if (ast == null)
+                throw new IllegalStateException("Compilation halted");
+            new ASTPrinter(out).print(ast);
+        }
+
+        public long readNanos() {
+            return readNanos;
+        }
+
+        public long lexNanos() {
+            return lexNanos;
+        }
+
+        public long parseNanos() {
+            return parseNanos;
+        }
+
+        public long astNanos() {
+            return astNanos;
+        }
+
+        public long totalNanos() {
+            return readNanos + lexNanos + parseNanos + astNanos;
+        }
+    }
+
+    // Compiles the given sources, in the iteration order of the map, as if
+    // they were input files of the given names. Parsing goes through the
+    // same FrontEnd as the command line Compiler.
+    public Result compile(Map<String, ? extends CharSequence> sources) {
+        var names = List.copyOf(sources.keySet());
+        var timer = new PhaseTimer(false, names);
+        var diagnostics = new ArrayList<Diagnostic>();
+        var frontEnd = new FrontEnd(timer, true, diagnostics::add);
+        var trees = new CoolParser.ProgramContext[names.size()];
+
+        for (int fileIndex = 0; fileIndex < names.size(); fileIndex++) {
+            var name = names.get(fileIndex);
+            timer.begin();
+            var text = sources.get(name).toString();
+            var input = CharStreams.fromString(text, name);
+            timer.end(fileIndex, PhaseTimer.Phase.READ);
+            trees[fileIndex] = frontEnd.parse(fileIndex, input, utf8Length(text), null);
+        }
+
+        if (!diagnostics.isEmpty())
+            return new Result(null, List.copyOf(diagnostics), timer);
+
+        var symbols = new SymbolTable();
+        var sourceMap = new SourceMap();
+        var files = new ArrayList<Prog>(names.size());
+        for (int fileIndex = 0; fileIndex < names.size(); fileIndex++) {
+            timer.begin();
+            files.add(ASTBuilder.build(trees[fileIndex], symbols, sourceMap,
+                    sourceMap.addFile(names.get(fileIndex)), hashCons));
+            timer.end(fileIndex, PhaseTimer.Phase.AST);
+            // The AST keeps no references to tokens.
+            trees[fileIndex] = null;
+        }
+        return new Result(link(files, symbols, sourceMap), List.of(), timer);
+    }
+
+    // Size of a source in UTF-8, as it would be stored in a file, for the
+    // sourceBytes metric.
+    private static long utf8Length(String text) {
+        long bytes = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            // Surrogates come in pairs, of 4 bytes together.
+            if (c >= 0x800 && !Character.isSurrogate(c))
+                bytes += 2;
+            else if (c >= 0x80)
+                bytes++;
+        }
+        return bytes;
+    }
+
+    // Puts the classes of the files together into one program, in the order
+    // of the files. The class lists of the files are not copied, so classes
+    // loaded lazily from .coolast artifacts stay unbuilt until first used.
+    static Prog link(List<Prog> files, SymbolTable symbols, SourceMap sources) {
+        var pos = files.isEmpty() ? 0 : files.get(0).pos;
+        if (files.size() == 1)
+            return new Prog(files.get(0).classes, symbols, sources, pos);
+        return new Prog(new LinkedClasses(files), symbols, sources, pos);
+    }
+
+    // Read-only concatenation of the class lists of several files.
+    private static final class LinkedClasses extends AbstractList<ClassRule> implements RandomAccess {
+        private final List<List<ClassRule>> files;
+        // Index of the first class of each file, and the total at the end.
+        private final int[] starts;
+
+        LinkedClasses(List<Prog> files) {
+            this.files = new ArrayList<>(files.size());
+            starts = new int[files.size() + 1];
+            for (int i = 0; i < files.size(); i++) {
+                var classes = files.get(i).classes;
+                this.files.add(classes);
+                starts[i + 1] = starts[i] + classes.size();
+            }
+        }
+
+        @Override
+        public ClassRule get(int index) {
+            if (index < 0 || index >= size())
+                throw new IndexOutOfBoundsException(index);
+            // The last file starting at or before the index; empty files
+            // share their start with the next one.
+            int file = Arrays.binarySearch(starts, index);
+            if (file < 0)
+                file = -file - 2;
+            else
+                while (starts[file + 1] == index)
+                    file++;
+            return files.get(file).get(index - starts[file]);
+        }
+
+        @Override
+        public int size() {
+            return starts[starts.length - 1];
+        }
+    }
+}
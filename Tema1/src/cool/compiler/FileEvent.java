@@ -0,0 +1,35 @@
+package cool.compiler;
+
+import jdk.jfr.*;
+
+// Flight recorder event spanning the compilation of one input file, from
+// reading it to building its AST.
+@Name("cool.compiler.File")
+@Label("Compiled File")
+@Category("COOL Compiler")
+final class FileEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Tokens")
+    int tokens;
+
+    @Label("AST Nodes")
+    long nodes;
+
+    @Label("Errors")
+    int errors;
+
+    static long countNodes(ASTNode root) {
+        var count = new long[1];
+        new ASTTraversal().onEnter((node, depth) -> {
+            count[0]++;
+            return ASTTraversal.Action.CONTINUE;
+        }).run(root);
+        return count[0];
+    }
+}
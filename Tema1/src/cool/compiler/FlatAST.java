@@ -0,0 +1,718 @@
+package cool.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+// Alternative, pointer-free representation of a Prog AST. Every node is an
+// index into a few parallel primitive arrays:
+//   kinds       - NodeKind ordinal
+//   firstChild  - index of the first child, or NO_NODE
+//   nextSibling - index of the next sibling, or NO_NODE
+//   positions   - packed position (see SourceMap)
+//   symbols     - main symbol id: name, literal value or operator
+//   types       - type symbol id (declared type, inherited type, static
+//                 dispatch type), since several nodes carry both a name
+//                 and a type
+//
+// Nodes are stored in preorder, with the root (the program) at index 0, so a
+// linear scan of the arrays visits the whole tree in preorder. Children keep
+// the order of the corresponding ASTNode fields; optional children that are
+// missing are simply absent, and the kind of each child tells them apart
+// (e.g. a method's formals are FORMAL nodes, followed by its body).
+class FlatAST {
+    static final int NO_NODE = -1;
+
+    final SymbolTable symbolTable;
+    final SourceMap sources;
+
+    private byte[] kinds;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private long[] positions;
+    private int[] symbols;
+    private int[] types;
+    private int size;
+
+    private FlatAST(SymbolTable symbolTable, SourceMap sources, int capacity) {
+        this.symbolTable = symbolTable;
+        this.sources = sources;
+        kinds = new byte[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        positions = new long[capacity];
+        symbols = new int[capacity];
+        types = new int[capacity];
+    }
+
+    // Wraps arrays that already hold a flat AST, e.g. read from a .coolast
+    // artifact.
+    FlatAST(SymbolTable symbolTable, SourceMap sources, byte[] kinds, int[] firstChild,
+            int[] nextSibling, long[] positions, int[] symbols, int[] types) {
+        this.symbolTable = symbolTable;
+        this.sources = sources;
+        this.kinds = kinds;
+        this.firstChild = firstChild;
+        this.nextSibling = nextSibling;
+        this.positions = positions;
+        this.symbols = symbols;
+        this.types = types;
+        this.size = kinds.length;
+    }
+
+    // Encodes an object AST into the flat representation.
+    static FlatAST encode(Prog prog) {
+        var flat = new FlatAST(prog.symbols, prog.sources, 256);
+        prog.accept(flat.new Encoder());
+        flat.trim();
+        return flat;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int root() {
+        return 0;
+    }
+
+    NodeKind kind(int node) {
+        return NodeKind.VALUES[kinds[node]];
+    }
+
+    int firstChild(int node) {
+        return firstChild[node];
+    }
+
+    int nextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    long pos(int node) {
+        return positions[node];
+    }
+
+    int symbol(int node) {
+        return symbols[node];
+    }
+
+    int type(int node) {
+        return types[node];
+    }
+
+    String symbolName(int node) {
+        return symbolTable.name(symbols[node]);
+    }
+
+    String typeName(int node) {
+        return symbolTable.name(types[node]);
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    // Checks that the arrays hold a tree that toNode can materialize: the
+    // nodes, read in preorder from the root, are exactly 0 to size - 1 (so
+    // there are no cycles, shared or unreachable nodes), and each node has
+    // the number and kinds of children, and the symbols, that its kind calls
+    // for. Used on arrays that come from outside, e.g. a .coolast artifact.
+    boolean isWellFormed() {
+        if (size == 0 || kind(root()) != NodeKind.PROG || nextSibling[root()] != NO_NODE)
+            return false;
+
+        // Iterative, since the arrays may describe arbitrarily deep chains.
+        var pending = new int[32];
+        int depth = 0;
+        int expected = 0;
+        pending[depth++] = root();
+        while (depth > 0) {
+            int node = pending[--depth];
+            if (node != expected++)
+                return false;
+            if (kinds[node] < 0 || kinds[node] >= NodeKind.VALUES.length || !hasValidChildren(node)
+                    || !hasValidSymbols(node))
+                return false;
+            // Push the children in reverse, so the first one is visited next.
+            int count = 0;
+            for (int c = firstChild[node]; c != NO_NODE; c = nextSibling[c])
+                count++;
+            if (depth + count > pending.length)
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, depth + count));
+            int i = depth + count;
+            for (int c = firstChild[node]; c != NO_NODE; c = nextSibling[c])
+                pending[--i] = c;
+            depth += count;
+        }
+        return expected == size;
+    }
+
+    // The children of a node are in range, come after the node and each
+    // other as in preorder, and match the fields of the node's class.
+    private boolean hasValidChildren(int node) {
+        int count = 0;
+        for (int c = firstChild[node], previous = node; c != NO_NODE; previous = c, c = nextSibling[c]) {
+            if (c <= previous || c >= size || kinds[c] < 0 || kinds[c] >= NodeKind.VALUES.length)
+                return false;
+            count++;
+        }
+
+        int first = firstChild[node];
+        switch (kind(node)) {
+            case PROG:
+                return all(first, kind -> kind == NodeKind.CLASS);
+            case CLASS:
+                return all(first, kind -> kind == NodeKind.METHOD || kind == NodeKind.ATTRIBUTE);
+            case FORMAL:
+            case INT:
+            case BOOL:
+            case STR:
+            case ID:
+            case NEW:
+                return count == 0;
+            case METHOD:
+                return leadingThenExprs(first, NodeKind.FORMAL, 1);
+            case LET:
+                return leadingThenExprs(first, NodeKind.LET_VAR, 1);
+            case ATTRIBUTE:
+            case LET_VAR:
+                return count <= 1 && all(first, FlatAST::isExpression);
+            case PARANTHESES:
+            case UNARY_MINUS:
+            case NOT:
+            case ASSIGN:
+            case IS_VOID:
+            case CASE_BRANCH:
+                return count == 1 && all(first, FlatAST::isExpression);
+            case MULT_DIV:
+            case PLUS_MINUS:
+            case RELATIONAL:
+            case WHILE:
+                return count == 2 && all(first, FlatAST::isExpression);
+            case IF:
+                return count == 3 && all(first, FlatAST::isExpression);
+            case BLOCK:
+            case CALL_FUNCTION:
+                return all(first, FlatAST::isExpression);
+            case CALL_METHOD:
+                return count >= 1 && all(first, FlatAST::isExpression);
+            case CASE:
+                return count >= 1 && isExpression(kind(first))
+                        && all(nextSibling[first], kind -> kind == NodeKind.CASE_BRANCH);
+            default:
+                return false;
+        }
+    }
+
+    // The symbol ids of a node are in the symbol table, and the ones that
+    // the node's class cannot do without (e.g. the name of a class or the
+    // type of a new) are present. The inherited type of a class and the
+    // static type of a dispatch are optional.
+    private boolean hasValidSymbols(int node) {
+        int symbol = symbols[node];
+        int type = types[node];
+        int count = symbolTable.size();
+        if (symbol < SymbolTable.NONE || symbol >= count || type < SymbolTable.NONE || type >= count)
+            return false;
+
+        switch (kind(node)) {
+            case CLASS:
+            case INT:
+            case BOOL:
+            case STR:
+            case ID:
+            case MULT_DIV:
+            case PLUS_MINUS:
+            case RELATIONAL:
+            case ASSIGN:
+            case CALL_METHOD:
+            case CALL_FUNCTION:
+                return symbol != SymbolTable.NONE;
+            case NEW:
+                return type != SymbolTable.NONE;
+            case FORMAL:
+            case METHOD:
+            case ATTRIBUTE:
+            case LET_VAR:
+            case CASE_BRANCH:
+                return symbol != SymbolTable.NONE && type != SymbolTable.NONE;
+            default:
+                return true;
+        }
+    }
+
+    private boolean all(int first, Predicate<NodeKind> test) {
+        for (int c = first; c != NO_NODE; c = nextSibling[c])
+            if (!test.test(kind(c)))
+                return false;
+        return true;
+    }
+
+    // Any number of children of the leading kind, then exactly the given
+    // number of expressions.
+    private boolean leadingThenExprs(int first, NodeKind leading, int exprs) {
+        int c = first;
+        while (c != NO_NODE && kind(c) == leading)
+            c = nextSibling[c];
+        int count = 0;
+        for (; c != NO_NODE; c = nextSibling[c]) {
+            if (!isExpression(kind(c)))
+                return false;
+            count++;
+        }
+        return count == exprs;
+    }
+
+    private static boolean isExpression(NodeKind kind) {
+        switch (kind) {
+            case PROG:
+            case CLASS:
+            case FORMAL:
+            case METHOD:
+            case ATTRIBUTE:
+            case LET_VAR:
+            case CASE_BRANCH:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    // Adapter for existing passes: materializes the subtree rooted at the
+    // given node as ASTNode objects and lets the visitor walk it. Passes that
+    // care about speed should use the cursor or the accessors instead.
+    <T> T accept(ASTVisitor<T> visitor) {
+        return toNode(root()).accept(visitor);
+    }
+
+    ASTNode toNode(int node) {
+        long pos = positions[node];
+        int symbol = symbols[node];
+        int type = types[node];
+        int child = firstChild[node];
+
+        switch (kind(node)) {
+            case PROG:
+                return new Prog(children(child, ClassRule.class), symbolTable, sources, pos);
+            case CLASS:
+                return new ClassRule(symbol, type, children(child, Feature.class), pos);
+            case FORMAL:
+                return new Formal(symbol, type, pos);
+            case METHOD: {
+                // Formals first, then the body.
+                var formals = new ArrayList<Formal>();
+                Expression body = null;
+                for (int c = child; c != NO_NODE; c = nextSibling[c]) {
+                    if (kinds[c] == NodeKind.FORMAL.ordinal())
+                        formals.add((Formal)toNode(c));
+                    else
+                        body = (Expression)toNode(c);
+                }
+                return new Method(symbol, List.copyOf(formals), type, body, pos);
+            }
+            case ATTRIBUTE:
+                return new Atribut(symbol, type, optional(child), pos);
+            case INT:
+                return new Int(symbol, pos);
+            case BOOL:
+                return new Bool(symbol, pos);
+            case STR:
+                return new Str(symbol, pos);
+            case ID:
+                return new Id(symbol, pos);
+            case MULT_DIV:
+                return new MultDiv(expr(child), symbol, expr(nextSibling[child]), pos);
+            case PLUS_MINUS:
+                return new PlusMinus(expr(child), symbol, expr(nextSibling[child]), pos);
+            case PARANTHESES:
+                return new Parantheses(expr(child), pos);
+            case UNARY_MINUS:
+                return new UnaryMinus(expr(child), pos);
+            case RELATIONAL:
+                return new Relational(expr(child), symbol, expr(nextSibling[child]), pos);
+            case NOT:
+                return new Not(expr(child), pos);
+            case ASSIGN:
+                return new Assign(symbol, expr(child), pos);
+            case IS_VOID:
+                return new IsVoid(expr(child), pos);
+            case NEW:
+                return new New(type, pos);
+            case IF: {
+                int thenBranch = nextSibling[child];
+                return new If(expr(child), expr(thenBranch), expr(nextSibling[thenBranch]), pos);
+            }
+            case WHILE:
+                return new While(expr(child), expr(nextSibling[child]), pos);
+            case BLOCK:
+                return new Block(children(child, Expression.class), pos);
+            case CALL_METHOD:
+                return new CallMethod(expr(child), symbol, type,
+                        children(nextSibling[child], Expression.class), pos);
+            case CALL_FUNCTION:
+                return new CallFunction(symbol, children(child, Expression.class), pos);
+            case LET_VAR:
+                return new LetVar(symbol, type, optional(child), pos);
+            case LET: {
+                // Definitions first, then the body.
+                var defs = new ArrayList<LetVar>();
+                Expression body = null;
+                for (int c = child; c != NO_NODE; c = nextSibling[c]) {
+                    if (kinds[c] == NodeKind.LET_VAR.ordinal())
+                        defs.add((LetVar)toNode(c));
+                    else
+                        body = (Expression)toNode(c);
+                }
+                return new Let(List.copyOf(defs), body, pos);
+            }
+            case CASE_BRANCH:
+                return new CaseBranch(symbol, type, expr(child), pos);
+            case CASE:
+                return new Case(expr(child), children(nextSibling[child], CaseBranch.class), pos);
+            default:
+                throw new IllegalStateException("Unknown node kind " + kinds[node]);
+        }
+    }
+
+    private Expression expr(int node) {
+        return (Expression)toNode(node);
+    }
+
+    private Expression optional(int node) {
+        return node == NO_NODE ? null : expr(node);
+    }
+
+    // Materializes a node and all its following siblings.
+    private <N extends ASTNode> List<N> children(int first, Class<N> type) {
+        int count = 0;
+        for (int c = first; c != NO_NODE; c = nextSibling[c])
+            count++;
+        if (count == 0)
+            return List.of();
+
+        var nodes = new ASTNode[count];
+        int i = 0;
+        for (int c = first; c != NO_NODE; c = nextSibling[c])
+            nodes[i++] = type.cast(toNode(c));
+        @SuppressWarnings("unchecked")
+        var list = (List<N>)List.of(nodes);
+        return list;
+    }
+
+    private int add(NodeKind kind, long pos, int symbol, int type) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            symbols = Arrays.copyOf(symbols, capacity);
+            types = Arrays.copyOf(types, capacity);
+        }
+        int node = size++;
+        kinds[node] = (byte)kind.ordinal();
+        firstChild[node] = NO_NODE;
+        nextSibling[node] = NO_NODE;
+        positions[node] = pos;
+        symbols[node] = symbol;
+        types[node] = type;
+        return node;
+    }
+
+    private void trim() {
+        kinds = Arrays.copyOf(kinds, size);
+        firstChild = Arrays.copyOf(firstChild, size);
+        nextSibling = Arrays.copyOf(nextSibling, size);
+        positions = Arrays.copyOf(positions, size);
+        symbols = Arrays.copyOf(symbols, size);
+        types = Arrays.copyOf(types, size);
+    }
+
+    // Fast preorder cursor over the flat tree. Besides next(), which walks the
+    // whole tree, it can move explicitly between parents, children and
+    // siblings. The ancestor stack is the only state and is reused.
+    final class Cursor {
+        private int node = root();
+        private int[] ancestors = new int[32];
+        private int depth = 0;
+
+        int node() {
+            return node;
+        }
+
+        int depth() {
+            return depth;
+        }
+
+        NodeKind kind() {
+            return FlatAST.this.kind(node);
+        }
+
+        long pos() {
+            return positions[node];
+        }
+
+        int symbol() {
+            return symbols[node];
+        }
+
+        int type() {
+            return types[node];
+        }
+
+        boolean toFirstChild() {
+            int child = firstChild[node];
+            if (child == NO_NODE)
+                return false;
+            if (depth == ancestors.length)
+                ancestors = Arrays.copyOf(ancestors, depth * 2);
+            ancestors[depth++] = node;
+            node = child;
+            return true;
+        }
+
+        boolean toNextSibling() {
+            int sibling = nextSibling[node];
+            if (sibling == NO_NODE)
+                return false;
+            node = sibling;
+            return true;
+        }
+
+        boolean toParent() {
+            if (depth == 0)
+                return false;
+            node = ancestors[--depth];
+            return true;
+        }
+
+        // Moves to the next node in preorder; returns false at the end.
+        boolean next() {
+            if (toFirstChild())
+                return true;
+            do {
+                if (toNextSibling())
+                    return true;
+            } while (toParent());
+            return false;
+        }
+
+        void reset() {
+            node = root();
+            depth = 0;
+        }
+    }
+
+    // Appends nodes in preorder; each visit returns the index of its node.
+    private class Encoder implements ASTVisitor<Integer> {
+        // Last child appended to each node, used to link siblings.
+        private int[] lastChild = new int[256];
+
+        private int node(NodeKind kind, long pos, int symbol, int type) {
+            int node = add(kind, pos, symbol, type);
+            if (node >= lastChild.length)
+                lastChild = Arrays.copyOf(lastChild, kinds.length);
+            lastChild[node] = NO_NODE;
+            return node;
+        }
+
+        private void child(int parent, ASTNode child) {
+            if (child == null)
+                return;
+            int node = child.accept(this);
+            if (lastChild[parent] == NO_NODE)
+                firstChild[parent] = node;
+            else
+                nextSibling[lastChild[parent]] = node;
+            lastChild[parent] = node;
+        }
+
+        private void children(int parent, List<? extends ASTNode> children) {
+            for (var c : children)
+                child(parent, c);
+        }
+
+        private int leaf(NodeKind kind, ASTNode n, int symbol, int type) {
+            return node(kind, n.pos, symbol, type);
+        }
+
+        private int unary(NodeKind kind, ASTNode n, int symbol, Expression expr) {
+            int node = node(kind, n.pos, symbol, SymbolTable.NONE);
+            child(node, expr);
+            return node;
+        }
+
+        private int binary(NodeKind kind, ASTNode n, int symbol, Expression left, Expression right) {
+            int node = node(kind, n.pos, symbol, SymbolTable.NONE);
+            child(node, left);
+            child(node, right);
+            return node;
+        }
+
+        @Override
+        public Integer visit(Prog prog) {
+            int node = node(NodeKind.PROG, prog.pos, SymbolTable.NONE, SymbolTable.NONE);
+            children(node, prog.classes);
+            return node;
+        }
+
+        @Override
+        public Integer visit(ClassRule cl) {
+            int node = node(NodeKind.CLASS, cl.pos, cl.type, cl.inheritsType);
+            children(node, cl.body);
+            return node;
+        }
+
+        @Override
+        public Integer visit(Formal formal) {
+            return leaf(NodeKind.FORMAL, formal, formal.name, formal.type);
+        }
+
+        @Override
+        public Integer visit(Method method) {
+            int node = node(NodeKind.METHOD, method.pos, method.name, method.type);
+            children(node, method.formals);
+            child(node, method.expr);
+            return node;
+        }
+
+        @Override
+        public Integer visit(Atribut atribut) {
+            int node = node(NodeKind.ATTRIBUTE, atribut.pos, atribut.name, atribut.type);
+            child(node, atribut.expr);
+            return node;
+        }
+
+        @Override
+        public Integer visit(Int integer) {
+            return leaf(NodeKind.INT, integer, integer.value, SymbolTable.NONE);
+        }
+
+        @Override
+        public Integer visit(Bool bool) {
+            return leaf(NodeKind.BOOL, bool, bool.value, SymbolTable.NONE);
+        }
+
+        @Override
+        public Integer visit(Str str) {
+            return leaf(NodeKind.STR, str, str.value, SymbolTable.NONE);
+        }
+
+        @Override
+        public Integer visit(Id id) {
+            return leaf(NodeKind.ID, id, id.name, SymbolTable.NONE);
+        }
+
+        @Override
+        public Integer visit(MultDiv multDiv) {
+            return binary(NodeKind.MULT_DIV, multDiv, multDiv.op, multDiv.left, multDiv.right);
+        }
+
+        @Override
+        public Integer visit(PlusMinus plusMinus) {
+            return binary(NodeKind.PLUS_MINUS, plusMinus, plusMinus.sign, plusMinus.left, plusMinus.right);
+        }
+
+        @Override
+        public Integer visit(Parantheses parantheses) {
+            return unary(NodeKind.PARANTHESES, parantheses, SymbolTable.NONE, parantheses.expr);
+        }
+
+        @Override
+        public Integer visit(UnaryMinus unaryMinus) {
+            return unary(NodeKind.UNARY_MINUS, unaryMinus, SymbolTable.NONE, unaryMinus.expr);
+        }
+
+        @Override
+        public Integer visit(Relational relational) {
+            return binary(NodeKind.RELATIONAL, relational, relational.op, relational.left, relational.right);
+        }
+
+        @Override
+        public Integer visit(Not not) {
+            return unary(NodeKind.NOT, not, SymbolTable.NONE, not.expr);
+        }
+
+        @Override
+        public Integer visit(Assign assign) {
+            return unary(NodeKind.ASSIGN, assign, assign.name, assign.expr);
+        }
+
+        @Override
+        public Integer visit(IsVoid isVoid) {
+            return unary(NodeKind.IS_VOID, isVoid, SymbolTable.NONE, isVoid.expr);
+        }
+
+        @Override
+        public Integer visit(New newRule) {
+            return leaf(NodeKind.NEW, newRule, SymbolTable.NONE, newRule.type);
+        }
+
+        @Override
+        public Integer visit(If ifRule) {
+            int node = node(NodeKind.IF, ifRule.pos, SymbolTable.NONE, SymbolTable.NONE);
+            child(node, ifRule.cond);
+            child(node, ifRule.thenBranch);
+            child(node, ifRule.elseBranch);
+            return node;
+        }
+
+        @Override
+        public Integer visit(While whileRule) {
+            return binary(NodeKind.WHILE, whileRule, SymbolTable.NONE, whileRule.cond, whileRule.expr);
+        }
+
+        @Override
+        public Integer visit(Block block) {
+            int node = node(NodeKind.BLOCK, block.pos, SymbolTable.NONE, SymbolTable.NONE);
+            children(node, block.expr);
+            return node;
+        }
+
+        @Override
+        public Integer visit(CallMethod callMethod) {
+            int node = node(NodeKind.CALL_METHOD, callMethod.pos, callMethod.name, callMethod.type);
+            child(node, callMethod.expr);
+            children(node, callMethod.args);
+            return node;
+        }
+
+        @Override
+        public Integer visit(CallFunction callFunction) {
+            int node = node(NodeKind.CALL_FUNCTION, callFunction.pos, callFunction.name, SymbolTable.NONE);
+            children(node, callFunction.expr);
+            return node;
+        }
+
+        @Override
+        public Integer visit(LetVar letVar) {
+            int node = node(NodeKind.LET_VAR, letVar.pos, letVar.name, letVar.type);
+            child(node, letVar.expr);
+            return node;
+        }
+
+        @Override
+        public Integer visit(Let letRule) {
+            int node = node(NodeKind.LET, letRule.pos, SymbolTable.NONE, SymbolTable.NONE);
+            children(node, letRule.defs);
+            child(node, letRule.body);
+            return node;
+        }
+
+        @Override
+        public Integer visit(CaseBranch caseBranch) {
+            int node = node(NodeKind.CASE_BRANCH, caseBranch.pos, caseBranch.name, caseBranch.type);
+            child(node, caseBranch.expr);
+            return node;
+        }
+
+        @Override
+        public Integer visit(Case caseRule) {
+            int node = node(NodeKind.CASE, caseRule.pos, SymbolTable.NONE, SymbolTable.NONE);
+            child(node, caseRule.cond);
+            children(node, caseRule.branches);
+            return node;
+        }
+    }
+}
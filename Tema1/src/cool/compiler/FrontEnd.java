@@ -0,0 +1,123 @@
+package cool.compiler;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+
+import cool.lexer.*;
+import cool.parser.*;
+
+import java.io.File;
+import java.util.function.Consumer;
+
+// Lexer, token stream and parser of one compilation, shared by its input
+// files, so that they are allocated once and only pointed at each new input.
+// Both the command line Compiler and CoolCompiler parse through parse(), so
+// their lexing, parsing, phase timing and metrics are the same.
+//
+// A FrontEnd belongs to a single compilation and is not thread-safe; only
+// the DFA caches of the generated lexer and parser are shared, and ANTLR
+// guards those itself.
+final class FrontEnd {
+    private final PhaseTimer timer;
+    private final boolean lexFirst;
+    private final Consumer<CoolCompiler.Diagnostic> diagnostics;
+    private CoolLexer lexer;
+    private CommonTokenStream tokenStream;
+    private CoolParser parser;
+    private int errorCount;
+
+    // Lexical and syntax errors are passed to the given consumer, named after
+    // the source name of their input. With lexFirst, each input is lexed
+    // whole before it is parsed, so the two phases are timed apart;
+    // otherwise the parser pulls tokens as it goes, and its time includes
+    // lexing.
+    FrontEnd(PhaseTimer timer, boolean lexFirst, Consumer<CoolCompiler.Diagnostic> diagnostics) {
+        this.timer = timer;
+        this.lexFirst = lexFirst;
+        this.diagnostics = diagnostics;
+    }
+
+    // Lexes and parses one input file of the compilation, of the given size
+    // in bytes, and counts it in the CompilerMetrics. The listener, if not
+    // null, is told of the rules as the parser goes (see ParseTreeDumper).
+    CoolParser.ProgramContext parse(int fileIndex, CharStream input, long bytes, ParseTreeListener listener) {
+        var parser = reset(input);
+        if (listener != null)
+            parser.addParseListener(listener);
+
+        if (lexFirst) {
+            timer.begin();
+            tokenStream.fill();
+            timer.end(fileIndex, PhaseTimer.Phase.LEX);
+        }
+
+        timer.begin();
+        var tree = parser.program();
+        timer.end(fileIndex, PhaseTimer.Phase.PARSE);
+
+        CompilerMetrics.files.increment();
+        CompilerMetrics.sourceBytes.add(bytes);
+        CompilerMetrics.tokens.add(tokenStream.size());
+        return tree;
+    }
+
+    // Points the lexer and parser at a new input and returns the parser.
+    private CoolParser reset(CharStream input) {
+        // Lexer
+        if (lexer == null)
+            lexer = new CoolLexer(input);
+        else
+            lexer.setInputStream(input);
+
+        // Token stream
+        if (tokenStream == null)
+            tokenStream = new CommonTokenStream(lexer);
+        else
+            tokenStream.setTokenSource(lexer);
+
+        // Parser
+        if (parser == null)
+            parser = new CoolParser(tokenStream);
+        else
+            parser.setTokenStream(tokenStream);
+
+        // Customized error listener, for including file names in error
+        // messages.
+        var fileName = new File(input.getSourceName()).getName();
+        errorCount = 0;
+        parser.removeErrorListeners();
+        parser.removeParseListeners();
+        parser.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer,
+                                    Object offendingSymbol,
+                                    int line, int charPositionInLine,
+                                    String msg,
+                                    RecognitionException e) {
+                Token token = (Token)offendingSymbol;
+                CoolCompiler.Diagnostic diagnostic;
+                if (token.getType() == CoolLexer.ERROR) {
+                    diagnostic = new CoolCompiler.Diagnostic(fileName, line, charPositionInLine + 1,
+                            CoolCompiler.Diagnostic.Kind.LEXICAL, token.getText());
+                    CompilerMetrics.lexicalErrors.increment();
+                } else {
+                    diagnostic = new CoolCompiler.Diagnostic(fileName, line, charPositionInLine + 1,
+                            CoolCompiler.Diagnostic.Kind.SYNTAX, msg);
+                    CompilerMetrics.syntaxErrors.increment();
+                }
+                errorCount++;
+                diagnostics.accept(diagnostic);
+            }
+        });
+        return parser;
+    }
+
+    CommonTokenStream tokens() {
+        return tokenStream;
+    }
+
+    // Lexical and syntax errors in the current input so far.
+    int errorCount() {
+        return errorCount;
+    }
+}
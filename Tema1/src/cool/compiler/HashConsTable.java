@@ -0,0 +1,87 @@
+package cool.compiler;
+
+// Hash-consing table: returns a single shared instance for structurally equal
+// subtrees (see StructuralHash). Only expressions, let definitions and case
+// branches are shared, since they are immutable. A shared node keeps the
+// position of its first occurrence, so this trades precise positions of the
+// duplicates for memory.
+//
+// Nodes must be interned bottom-up (children before parents); then the
+// children of structurally equal nodes are already the same objects and the
+// equality check stops after one level.
+class HashConsTable {
+    private ASTNode[] table = new ASTNode[1024];
+    private int size;
+    private long hits;
+
+    static boolean shareable(ASTNode node) {
+        return node instanceof Expression
+                || node.kind == NodeKind.LET_VAR
+                || node.kind == NodeKind.CASE_BRANCH;
+    }
+
+    // Returns the shared instance equal to the given node, registering the
+    // node itself if there is none yet.
+    @SuppressWarnings("unchecked")
+    <N extends ASTNode> N intern(N node) {
+        if (node == null || !shareable(node))
+            return node;
+
+        int mask = table.length - 1;
+        for (int i = node.hash & mask; ; i = (i + 1) & mask) {
+            var existing = table[i];
+            if (existing == null)
+                break;
+            if (StructuralHash.equal(existing, node)) {
+                hits++;
+                return (N)existing;
+            }
+        }
+
+        // Keep the load factor under 1/2.
+        if (2 * (size + 1) > table.length)
+            rehash(table.length * 2);
+        insert(node);
+        size++;
+        return node;
+    }
+
+    // Interns every node of a tree that was built without hash-consing,
+    // bottom-up, with children in the order of ASTChildren, which is the
+    // order ASTBuilder visits them. The tree is rebuilt along the way
+    // wherever a child is replaced by a shared instance.
+    <N extends ASTNode> N internTree(N node) {
+        ASTNode result = node;
+        int count = ASTChildren.count(node);
+        for (int i = 0; i < count; i++)
+            result = ASTChildren.withChild(result, i, internTree(ASTChildren.get(result, i)));
+        @SuppressWarnings("unchecked")
+        var interned = (N)intern(result);
+        return interned;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Number of nodes that were replaced by a shared instance.
+    long hits() {
+        return hits;
+    }
+
+    private void insert(ASTNode node) {
+        int mask = table.length - 1;
+        int i = node.hash & mask;
+        while (table[i] != null)
+            i = (i + 1) & mask;
+        table[i] = node;
+    }
+
+    private void rehash(int capacity) {
+        var old = table;
+        table = new ASTNode[capacity];
+        for (var node : old)
+            if (node != null)
+                insert(node);
+    }
+}
@@ -0,0 +1,37 @@
+package cool.compiler;
+
+// The kinds of AST nodes, one per concrete ASTNode subclass. Used wherever a
+// node has to be identified by a small number instead of by its class (e.g.
+// the flat AST encoding).
+enum NodeKind {
+    PROG,
+    CLASS,
+    FORMAL,
+    METHOD,
+    ATTRIBUTE,
+    INT,
+    BOOL,
+    STR,
+    ID,
+    MULT_DIV,
+    PLUS_MINUS,
+    PARANTHESES,
+    UNARY_MINUS,
+    RELATIONAL,
+    NOT,
+    ASSIGN,
+    IS_VOID,
+    NEW,
+    IF,
+    WHILE,
+    BLOCK,
+    CALL_METHOD,
+    CALL_FUNCTION,
+    LET_VAR,
+    LET,
+    CASE_BRANCH,
+    CASE;
+
+    // Cached, since values() copies the array on every call.
+    static final NodeKind[] VALUES = values();
+}
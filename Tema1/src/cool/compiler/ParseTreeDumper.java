@@ -0,0 +1,302 @@
+package cool.compiler;
+
+import org.antlr.v4.runtime.*;
+
+import cool.parser.*;
+
+import java.io.PrintStream;
+import java.util.List;
+
+// Dump-only mode: produces the same indented tree dump as ASTPrinter, but
+// straight from the parser contexts, without building an AST.
+//
+// It is registered as a parse listener, so each class is rendered as soon as
+// the parser exits it, and its subtree is then detached from the parse tree
+// to be collected. The text is kept until all files are parsed, since nothing
+// may be printed if any file has lexical or syntax errors.
+class ParseTreeDumper extends CoolParserBaseListener {
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final FrontEnd frontEnd;
+    private final StringBuilder buffer;
+    private String indents = "  ".repeat(32);
+    private int indent = 1;
+
+    // All files share the same buffer, holding the classes rendered so far.
+    ParseTreeDumper(FrontEnd frontEnd, StringBuilder buffer) {
+        this.frontEnd = frontEnd;
+        this.buffer = buffer;
+    }
+
+    static void writeTo(PrintStream out, StringBuilder buffer) {
+        out.append("program").append(NEWLINE);
+        out.append(buffer);
+        out.flush();
+    }
+
+    @Override
+    public void exitClassRule(CoolParser.ClassRuleContext ctx) {
+        // After an error the contexts may be incomplete, and the dump will
+        // be discarded anyway.
+        if (frontEnd.errorCount() > 0)
+            return;
+
+        renderer.visit(ctx);
+        ctx.children = null;
+        ctx.body.clear();
+    }
+
+    private final CoolParserBaseVisitor<Void> renderer = new CoolParserBaseVisitor<>() {
+        @Override
+        public Void visitClassRule(CoolParser.ClassRuleContext ctx) {
+            printIndent("class");
+            indent++;
+            printIndent(ctx.type.getText());
+            if (ctx.inheritsType != null)
+                printIndent(ctx.inheritsType.getText());
+            visitAll(ctx.body);
+            indent--;
+            return null;
+        }
+
+        @Override
+        public Void visitFormal(CoolParser.FormalContext ctx) {
+            printIndent("formal");
+            indent++;
+            printIndent(ctx.name.getText());
+            printIndent(ctx.type.getText());
+            indent--;
+            return null;
+        }
+
+        @Override
+        public Void visitMethod(CoolParser.MethodContext ctx) {
+            printIndent("method");
+            indent++;
+            printIndent(ctx.name.getText());
+            visitAll(ctx.formals);
+            printIndent(ctx.type.getText());
+            if (ctx.e != null)
+                visit(ctx.e);
+            indent--;
+            return null;
+        }
+
+        @Override
+        public Void visitAtribut(CoolParser.AtributContext ctx) {
+            printIndent("attribute");
+            indent++;
+            printIndent(ctx.name.getText());
+            printIndent(ctx.type.getText());
+            if (ctx.e != null)
+                visit(ctx.e);
+            indent--;
+            return null;
+        }
+
+        @Override
+        public Void visitInt(CoolParser.IntContext ctx) {
+            printIndent(ctx.start.getText());
+            return null;
+        }
+
+        @Override
+        public Void visitBool(CoolParser.BoolContext ctx) {
+            printIndent(ctx.start.getText());
+            return null;
+        }
+
+        @Override
+        public Void visitString(CoolParser.StringContext ctx) {
+            printIndent(ctx.start.getText());
+            return null;
+        }
+
+        @Override
+        public Void visitId(CoolParser.IdContext ctx) {
+            printIndent(ctx.start.getText());
+            return null;
+        }
+
+        @Override
+        public Void visitMultDiv(CoolParser.MultDivContext ctx) {
+            return binary(ctx.op, ctx.left, ctx.right);
+        }
+
+        @Override
+        public Void visitPlusMinus(CoolParser.PlusMinusContext ctx) {
+            return binary(ctx.op, ctx.left, ctx.right);
+        }
+
+        @Override
+        public Void visitRelational(CoolParser.RelationalContext ctx) {
+            return binary(ctx.op, ctx.left, ctx.right);
+        }
+
+        @Override
+        public Void visitParantheses(CoolParser.ParanthesesContext ctx) {
+            return visit(ctx.e);
+        }
+
+        @Override
+        public Void visitUnaryMinus(CoolParser.UnaryMinusContext ctx) {
+            return unary("~", ctx.e);
+        }
+
+        @Override
+        public Void visitNot(CoolParser.NotContext ctx) {
+            return unary("not", ctx.e);
+        }
+
+        @Override
+        public Void visitIsVoid(CoolParser.IsVoidContext ctx) {
+            return unary("isvoid", ctx.e);
+        }
+
+        @Override
+        public Void visitAssign(CoolParser.AssignContext ctx) {
+            printIndent("<-");
+            indent++;
+            printIndent(ctx.name.getText());
+            visit(ctx.e);
+            indent--;
+            return null;
+        }
+
+        @Override
+        public Void visitNew(CoolParser.NewContext ctx) {
+            printIndent("new");
+            indent++;
+            printIndent(ctx.type.getText());
+            indent--;
+            return null;
+        }
+
+        @Override
+        public Void visitIf(CoolParser.IfContext ctx) {
+            printIndent("if");
+            indent++;
+            visit(ctx.cond);
+            visit(ctx.thenBranch);
+            visit(ctx.elseBranch);
+            indent--;
+            return null;
+        }
+
+        @Override
+        public Void visitWhile(CoolParser.WhileContext ctx) {
+            printIndent("while");
+            indent++;
+            visit(ctx.cond);
+            visit(ctx.e);
+            indent--;
+            return null;
+        }
+
+        @Override
+        public Void visitBlock(CoolParser.BlockContext ctx) {
+            printIndent("block");
+            indent++;
+            visitAll(ctx.e);
+            indent--;
+            return null;
+        }
+
+        @Override
+        public Void visitCallMethod(CoolParser.CallMethodContext ctx) {
+            printIndent(".");
+            indent++;
+            visit(ctx.e1);
+            if (ctx.type != null)
+                printIndent(ctx.type.getText());
+            printIndent(ctx.name.getText());
+            visitAll(ctx.args);
+            indent--;
+            return null;
+        }
+
+        @Override
+        public Void visitCallFunction(CoolParser.CallFunctionContext ctx) {
+            printIndent("implicit dispatch");
+            indent++;
+            printIndent(ctx.name.getText());
+            visitAll(ctx.e);
+            indent--;
+            return null;
+        }
+
+        @Override
+        public Void visitLetVar(CoolParser.LetVarContext ctx) {
+            printIndent("local");
+            indent++;
+            printIndent(ctx.name.getText());
+            printIndent(ctx.type.getText());
+            if (ctx.e != null)
+                visit(ctx.e);
+            indent--;
+            return null;
+        }
+
+        @Override
+        public Void visitLet(CoolParser.LetContext ctx) {
+            printIndent("let");
+            indent++;
+            visitAll(ctx.defs);
+            if (ctx.body != null)
+                visit(ctx.body);
+            indent--;
+            return null;
+        }
+
+        @Override
+        public Void visitCaseBranch(CoolParser.CaseBranchContext ctx) {
+            printIndent("case branch");
+            indent++;
+            printIndent(ctx.name.getText());
+            printIndent(ctx.type.getText());
+            visit(ctx.e);
+            indent--;
+            return null;
+        }
+
+        @Override
+        public Void visitCase(CoolParser.CaseContext ctx) {
+            printIndent("case");
+            indent++;
+            visit(ctx.cond);
+            visitAll(ctx.branches);
+            indent--;
+            return null;
+        }
+
+        private Void binary(Token op, ParserRuleContext left, ParserRuleContext right) {
+            printIndent(op.getText());
+            indent++;
+            visit(left);
+            visit(right);
+            indent--;
+            return null;
+        }
+
+        private Void unary(String op, ParserRuleContext e) {
+            printIndent(op);
+            indent++;
+            visit(e);
+            indent--;
+            return null;
+        }
+
+        private void visitAll(List<? extends ParserRuleContext> children) {
+            if (children != null)
+                for (var child : children)
+                    visit(child);
+        }
+    };
+
+    private void printIndent(String str) {
+        int width = 2 * indent;
+        if (width > indents.length())
+            indents = " ".repeat(2 * width);
+        buffer.append(indents, 0, width).append(str).append(NEWLINE);
+    }
+}
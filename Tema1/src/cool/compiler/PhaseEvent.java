@@ -0,0 +1,17 @@
+package cool.compiler;
+
+import jdk.jfr.*;
+
+// Flight recorder event for one compiler phase (see PhaseTimer), of one
+// input file or of the whole program. When no recording is running, the
+// event is never committed and costs little more than its allocation.
+@Name("cool.compiler.Phase")
+@Label("Compiler Phase")
+@Category("COOL Compiler")
+final class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("File")
+    String file;
+}
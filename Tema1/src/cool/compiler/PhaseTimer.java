@@ -0,0 +1,114 @@
+package cool.compiler;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+// Wall time, CPU time and allocated bytes of each compiler phase, per input
+// file, reported by --time-phases. Printing is measured for the whole
+// program only.
+//
+// CPU time and allocation are those of the compiling thread, so the work
+// that parallel AST construction or printing does on Workers.POOL is only
+// seen in the wall time.
+//
+// Whether or not --time-phases is given, every phase is also a PhaseEvent
+// for the flight recorder and a sample of its latency histogram in
+// CompilerMetrics.
+class PhaseTimer {
+    enum Phase {
+        READ,
+        LEX,
+        PARSE,
+        AST,
+        PRINT
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    private final boolean enabled;
+    private final List<String> files;
+    // Wall nanoseconds, CPU nanoseconds and bytes, per file and phase. The
+    // last row is for phases of the whole program.
+    private final long[][][] totals;
+    private long wallStart, cpuStart, allocatedStart;
+    private PhaseEvent event;
+
+    PhaseTimer(boolean enabled, List<String> files) {
+        this.enabled = enabled;
+        this.files = files;
+        totals = new long[files.size() + 1][Phase.values().length][3];
+    }
+
+    void begin() {
+        event = new PhaseEvent();
+        event.begin();
+        if (enabled) {
+            allocatedStart = THREADS.getCurrentThreadAllocatedBytes();
+            cpuStart = THREADS.getCurrentThreadCpuTime();
+        }
+        wallStart = System.nanoTime();
+    }
+
+    // Adds the time since begin to a phase; a file index of -1 stands for
+    // the whole program.
+    void end(int fileIndex, Phase phase) {
+        long wall = System.nanoTime() - wallStart;
+        CompilerMetrics.phaseLatency[phase.ordinal()].record(wall);
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase.name().toLowerCase();
+            event.file = fileIndex < 0 ? null : files.get(fileIndex);
+            event.commit();
+        }
+        var row = totals[fileIndex < 0 ? files.size() : fileIndex][phase.ordinal()];
+        row[0] += wall;
+        if (!enabled)
+            return;
+        long cpu = THREADS.getCurrentThreadCpuTime() - cpuStart;
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedStart;
+        row[1] += cpu;
+        row[2] += allocated;
+    }
+
+    // Wall time of a phase over all files. Unlike the CPU time and
+    // allocation, it is kept even when the report is not enabled.
+    long wallNanos(Phase phase) {
+        long sum = 0;
+        for (var file : totals)
+            sum += file[phase.ordinal()][0];
+        return sum;
+    }
+
+    void print(PrintStream out) {
+        if (!enabled)
+            return;
+        out.printf("%-30s %-6s %10s %10s %12s%n", "file", "phase", "wall ms", "cpu ms", "alloc KB");
+        var sum = new long[Phase.values().length][3];
+        for (int f = 0; f <= files.size(); f++) {
+            var name = f < files.size() ? files.get(f) : "program";
+            for (var phase : Phase.values()) {
+                var row = totals[f][phase.ordinal()];
+                if (row[0] == 0)
+                    continue;
+                printRow(out, name, phase.name().toLowerCase(), row);
+                for (int k = 0; k < 3; k++)
+                    sum[phase.ordinal()][k] += row[k];
+            }
+        }
+
+        var all = new long[3];
+        for (var phase : Phase.values()) {
+            var row = sum[phase.ordinal()];
+            printRow(out, "total", phase.name().toLowerCase(), row);
+            for (int k = 0; k < 3; k++)
+                all[k] += row[k];
+        }
+        printRow(out, "total", "all", all);
+    }
+
+    private static void printRow(PrintStream out, String name, String phase, long[] row) {
+        out.printf("%-30s %-6s %10.3f %10.3f %12.1f%n", name, phase, row[0] / 1e6, row[1] / 1e6, row[2] / 1024.0);
+    }
+}
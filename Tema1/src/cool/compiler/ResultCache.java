@@ -0,0 +1,442 @@
+package cool.compiler;
+
+import org.antlr.v4.runtime.RuntimeMetaData;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+// Content-addressed cache of whole compile results, for builds that compile
+// the same unchanged files over and over (--result-cache=DIR).
+//
+// The key is a SHA-256 digest of the class files of the compiler, the
+// options that affect its output, the output charset, and the name and
+// contents of every input file. The value is everything the compile wrote
+// to stdout and stderr, in the order it was written, so a hit replays it
+// byte for byte without lexing or parsing anything.
+//
+// Entries are files named after their key, DIR/ab/abcdef....res. The index,
+// DIR/index, is a fixed-size open addressing hash table of keys, with the
+// size and the last use time of each entry, laid out to be memory-mapped:
+//   header: int magic, int version, int slot count, int entry count,
+//           long total size of the entries, padding up to 64 bytes
+//   slot:   32 bytes of key, long last use in ms (0 if the slot is free),
+//           long size, padding up to 64 bytes
+// Once the entries outgrow the size bound, or the table fills up, the least
+// recently used ones are evicted, down to 90% of the bounds.
+//
+// Several compiler processes may share a directory: the index is only read
+// or changed under a lock on its file, and entries are written to a
+// temporary file first and then moved into place.
+final class ResultCache {
+    private static final int INDEX_MAGIC = 0x43524349;   // "CRCI"
+    private static final int ENTRY_MAGIC = 0x43524553;   // "CRES"
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 64;
+    private static final int SLOTS = 1 << 16;
+    private static final int MASK = SLOTS - 1;
+    private static final int MAX_ENTRIES = SLOTS / 4 * 3;
+    private static final int INDEX_SIZE = HEADER_SIZE + SLOTS * SLOT_SIZE;
+
+    // Offsets in the header and in a slot.
+    private static final int ENTRIES = 12;
+    private static final int TOTAL_SIZE = 16;
+    private static final int KEY_SIZE = 32;
+    private static final int LAST_USED = 32;
+    private static final int SIZE = 40;
+
+    // Streams of the output segments in an entry.
+    private static final byte OUT = 1;
+    private static final byte ERR = 2;
+    // Magic, version, key and the halted flag come before the segments.
+    private static final int ENTRY_HEADER_SIZE = 8 + KEY_SIZE + 1;
+
+    // One object per directory, since a JVM may hold only one lock on the
+    // index file at a time.
+    private static final HashMap<Path, ResultCache> caches = new HashMap<>();
+    private static byte[] compilerDigest;
+
+    private final Path dir;
+    private final FileChannel channel;
+    private final MappedByteBuffer index;
+    private long maxBytes;
+
+    private ResultCache(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        channel = FileChannel.open(dir.resolve("index"),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        var lock = channel.lock();
+        try {
+            // An empty, truncated or foreign file is started over; entries
+            // it referred to are left for the eviction of a later index.
+            if (channel.size() != INDEX_SIZE || !hasHeader())
+                channel.truncate(0);
+            index = channel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_SIZE);
+            if (index.getInt(0) != INDEX_MAGIC) {
+                index.putInt(0, INDEX_MAGIC);
+                index.putInt(4, VERSION);
+                index.putInt(8, SLOTS);
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    private boolean hasHeader() throws IOException {
+        var header = ByteBuffer.allocate(12);
+        channel.read(header, 0);
+        return header.getInt(0) == INDEX_MAGIC && header.getInt(4) == VERSION && header.getInt(8) == SLOTS;
+    }
+
+    static synchronized ResultCache open(Path dir, long maxBytes) throws IOException {
+        dir = dir.toAbsolutePath().normalize();
+        var cache = caches.get(dir);
+        if (cache == null) {
+            cache = new ResultCache(dir);
+            caches.put(dir, cache);
+        }
+        synchronized (cache) {
+            cache.maxBytes = maxBytes;
+        }
+        return cache;
+    }
+
+    // Key of a compile with the given options, whose output is encoded in
+    // the given charset, of input files with the given contents.
+    static byte[] key(CompilerOptions options, Charset charset, byte[][] contents) throws IOException {
+        var digest = sha256();
+        digest.update(compilerDigest());
+        update(digest, RuntimeMetaData.VERSION);
+        update(digest, charset.name());
+        update(digest, "format=" + options.format + " gzip=" + options.gzip + " dumpOnly=" + options.dumpOnly
+                + " astStats=" + options.astStats + " hashCons=" + options.hashCons
+                + " parallelPrint=" + options.parallelPrint);
+        for (int i = 0; i < contents.length; i++) {
+            // Names are part of the output, in error messages and in the
+            // json format.
+            update(digest, options.files.get(i));
+            digest.update(ByteBuffer.allocate(8).putLong(0, contents[i].length));
+            digest.update(contents[i]);
+        }
+        return digest.digest();
+    }
+
+    // Digest of the class files of the compiler, standing for its version,
+    // so that a rebuilt compiler does not replay the output of the old one,
+    // nor load its .coolast artifacts (see SourceChecksum).
+    static synchronized byte[] compilerDigest() throws IOException {
+        if (compilerDigest != null)
+            return compilerDigest;
+
+        var source = Compiler.class.getProtectionDomain().getCodeSource();
+        if (source == null)
+            throw new IOException("Unknown location of the compiler classes");
+        Path location;
+        try {
+            location = Paths.get(source.getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+
+        var digest = sha256();
+        if (Files.isDirectory(location)) {
+            try (var paths = Files.walk(location.resolve("cool"))) {
+                for (var path : (Iterable<Path>)paths.filter(p -> p.toString().endsWith(".class")).sorted()::iterator) {
+                    update(digest, location.relativize(path).toString());
+                    digest.update(Files.readAllBytes(path));
+                }
+            }
+        } else {
+            digest.update(Files.readAllBytes(location));
+        }
+        compilerDigest = digest.digest();
+        return compilerDigest;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256.
+            throw new AssertionError(e);
+        }
+    }
+
+    // Strings are length-prefixed, so that consecutive ones cannot run into
+    // each other.
+    private static void update(MessageDigest digest, String text) {
+        var bytes = text.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(4).putInt(0, bytes.length));
+        digest.update(bytes);
+    }
+
+    // Returns the cached result of the key, or null.
+    synchronized Entry lookup(byte[] key) throws IOException {
+        var lock = channel.lock();
+        try {
+            int slot = find(key);
+            if (slot < 0)
+                return null;
+
+            var path = entryPath(key);
+            Entry entry = null;
+            try {
+                entry = Entry.parse(key, Files.readAllBytes(path));
+            } catch (NoSuchFileException e) {
+                // Deleted behind the index's back.
+            }
+            if (entry == null) {
+                Files.deleteIfExists(path);
+                remove(slot);
+                return null;
+            }
+            index.putLong(slotOffset(slot) + LAST_USED, System.currentTimeMillis());
+            return entry;
+        } finally {
+            lock.release();
+        }
+    }
+
+    synchronized void store(byte[] key, Recording recording, boolean halted) throws IOException {
+        var data = recording.toEntry(key, halted);
+        if (data.length > maxBytes)
+            return;
+
+        var temp = Files.createTempFile(dir, ".entry", ".tmp");
+        try {
+            Files.write(temp, data);
+            var lock = channel.lock();
+            try {
+                var path = entryPath(key);
+                Files.createDirectories(path.getParent());
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                int slot = find(key);
+                if (slot >= 0) {
+                    // Stored meanwhile by another compile.
+                    index.putLong(TOTAL_SIZE, index.getLong(TOTAL_SIZE) - index.getLong(slotOffset(slot) + SIZE));
+                } else {
+                    slot = home(key);
+                    while (index.getLong(slotOffset(slot) + LAST_USED) != 0)
+                        slot = (slot + 1) & MASK;
+                    index.put(slotOffset(slot), key);
+                    index.putInt(ENTRIES, index.getInt(ENTRIES) + 1);
+                }
+                index.putLong(slotOffset(slot) + LAST_USED, System.currentTimeMillis());
+                index.putLong(slotOffset(slot) + SIZE, data.length);
+                index.putLong(TOTAL_SIZE, index.getLong(TOTAL_SIZE) + data.length);
+                evict();
+            } finally {
+                lock.release();
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void evict() throws IOException {
+        if (index.getLong(TOTAL_SIZE) <= maxBytes && index.getInt(ENTRIES) < MAX_ENTRIES)
+            return;
+
+        // Removing a slot moves others, so the victims are found again by
+        // key.
+        var used = new ArrayList<long[]>();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long lastUsed = index.getLong(slotOffset(slot) + LAST_USED);
+            if (lastUsed != 0)
+                used.add(new long[] { lastUsed, slot });
+        }
+        used.sort(Comparator.comparingLong(slot -> slot[0]));
+        var victims = new ArrayList<byte[]>();
+        long size = index.getLong(TOTAL_SIZE);
+        int entries = index.getInt(ENTRIES);
+        for (var slot : used) {
+            if (size <= maxBytes / 10 * 9 && entries < MAX_ENTRIES / 10 * 9)
+                break;
+            victims.add(slotKey((int)slot[1]));
+            size -= index.getLong(slotOffset((int)slot[1]) + SIZE);
+            entries--;
+        }
+        for (var key : victims) {
+            Files.deleteIfExists(entryPath(key));
+            remove(find(key));
+        }
+    }
+
+    private Path entryPath(byte[] key) {
+        var hex = new StringBuilder(2 * KEY_SIZE);
+        for (var b : key)
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return dir.resolve(hex.substring(0, 2)).resolve(hex + ".res");
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static int home(byte[] key) {
+        return ByteBuffer.wrap(key).getInt() & MASK;
+    }
+
+    private byte[] slotKey(int slot) {
+        var key = new byte[KEY_SIZE];
+        index.get(slotOffset(slot), key);
+        return key;
+    }
+
+    // Linear probing, from the home slot of the key up to a free slot.
+    private int find(byte[] key) {
+        var wanted = ByteBuffer.wrap(key);
+        for (int slot = home(key); ; slot = (slot + 1) & MASK) {
+            if (index.getLong(slotOffset(slot) + LAST_USED) == 0)
+                return -1;
+            if (index.slice(slotOffset(slot), KEY_SIZE).equals(wanted))
+                return slot;
+        }
+    }
+
+    // Frees a slot, moving back the entries after it that would no longer
+    // be found past the gap (backward shift deletion).
+    private void remove(int slot) {
+        index.putInt(ENTRIES, index.getInt(ENTRIES) - 1);
+        index.putLong(TOTAL_SIZE, index.getLong(TOTAL_SIZE) - index.getLong(slotOffset(slot) + SIZE));
+        var empty = new byte[SLOT_SIZE];
+        int gap = slot;
+        while (true) {
+            index.put(slotOffset(gap), empty);
+            int next = gap;
+            while (true) {
+                next = (next + 1) & MASK;
+                if (index.getLong(slotOffset(next) + LAST_USED) == 0)
+                    return;
+                // An entry stays where it is if its home slot lies
+                // cyclically after the gap, up to the entry itself.
+                int home = home(slotKey(next));
+                boolean stays = gap <= next ? gap < home && home <= next : gap < home || home <= next;
+                if (!stays)
+                    break;
+            }
+            var moved = new byte[SLOT_SIZE];
+            index.get(slotOffset(next), moved);
+            index.put(slotOffset(gap), moved);
+            gap = next;
+        }
+    }
+
+    // The output of a compile as it is being cached: whatever is written to
+    // the two streams is passed on, and also kept, in order, as segments
+    // tagged with their stream.
+    static final class Recording {
+        private final ByteArrayOutputStream segments = new ByteArrayOutputStream();
+        final PrintStream out;
+        final PrintStream err;
+
+        Recording(PrintStream out, PrintStream err, Charset charset) {
+            this.out = new PrintStream(new Tee(out, OUT), false, charset);
+            this.err = new PrintStream(new Tee(err, ERR), true, charset);
+        }
+
+        private byte[] toEntry(byte[] key, boolean halted) {
+            out.flush();
+            err.flush();
+            synchronized (segments) {
+                var data = new ByteArrayOutputStream(ENTRY_HEADER_SIZE + segments.size());
+                var header = ByteBuffer.allocate(ENTRY_HEADER_SIZE)
+                    .putInt(ENTRY_MAGIC).putInt(VERSION).put(key).put((byte)(halted ? 1 : 0));
+                data.writeBytes(header.array());
+                data.writeBytes(segments.toByteArray());
+                return data.toByteArray();
+            }
+        }
+
+        private final class Tee extends OutputStream {
+            private final OutputStream target;
+            private final byte stream;
+
+            Tee(OutputStream target, byte stream) {
+                this.target = target;
+                this.stream = stream;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte)b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (len == 0)
+                    return;
+                target.write(b, off, len);
+                synchronized (segments) {
+                    segments.write(stream);
+                    segments.writeBytes(ByteBuffer.allocate(4).putInt(len).array());
+                    segments.write(b, off, len);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                target.flush();
+            }
+        }
+    }
+
+    static final class Entry {
+        final boolean halted;
+        private final byte[] data;
+
+        private Entry(boolean halted, byte[] data) {
+            this.halted = halted;
+            this.data = data;
+        }
+
+        // Returns null for a file that is not a whole entry of the key.
+        private static Entry parse(byte[] key, byte[] data) {
+            if (data.length < ENTRY_HEADER_SIZE)
+                return null;
+            var buffer = ByteBuffer.wrap(data);
+            if (buffer.getInt() != ENTRY_MAGIC || buffer.getInt() != VERSION
+                    || !Arrays.equals(data, 8, 8 + KEY_SIZE, key, 0, KEY_SIZE))
+                return null;
+            buffer.position(8 + KEY_SIZE);
+            var halted = buffer.get() != 0;
+            while (buffer.hasRemaining()) {
+                if (buffer.remaining() < 5)
+                    return null;
+                var stream = buffer.get();
+                int length = buffer.getInt();
+                if ((stream != OUT && stream != ERR) || length < 0 || length > buffer.remaining())
+                    return null;
+                buffer.position(buffer.position() + length);
+            }
+            return new Entry(halted, data);
+        }
+
+        void replay(PrintStream out, PrintStream err) {
+            var buffer = ByteBuffer.wrap(data, ENTRY_HEADER_SIZE, data.length - ENTRY_HEADER_SIZE);
+            while (buffer.hasRemaining()) {
+                var stream = buffer.get();
+                int length = buffer.getInt();
+                (stream == OUT ? out : err).write(data, buffer.position(), length);
+                buffer.position(buffer.position() + length);
+            }
+            out.flush();
+            err.flush();
+        }
+    }
+}
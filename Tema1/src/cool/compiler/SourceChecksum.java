@@ -0,0 +1,39 @@
+package cool.compiler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+// SHA-256 of the contents of a source file and of the compiler build, used
+// to tell whether a .coolast artifact was produced from the current contents
+// of the file by the current compiler. The build is that of the result cache
+// (see ResultCache.compilerDigest), so a rebuilt compiler with a different
+// AST layout never loads the artifacts of the old one.
+class SourceChecksum {
+    static final int SIZE = 32;
+
+    private final byte[] digest;
+
+    SourceChecksum(byte[] digest) {
+        this.digest = digest;
+    }
+
+    // The contents must be the bytes that are then parsed, so that the
+    // artifact written for them carries their checksum even if the file
+    // changes meanwhile.
+    static SourceChecksum of(byte[] contents) throws IOException {
+        var digest = ResultCache.sha256();
+        digest.update(ResultCache.compilerDigest());
+        digest.update(ByteBuffer.allocate(8).putLong(0, contents.length));
+        digest.update(contents);
+        return new SourceChecksum(digest.digest());
+    }
+
+    byte[] bytes() {
+        return digest.clone();
+    }
+
+    boolean matches(byte[] digest) {
+        return MessageDigest.isEqual(this.digest, digest);
+    }
+}
@@ -0,0 +1,80 @@
+package cool.compiler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Side table for source positions. AST nodes store a single packed long
+// holding the file id, the line and the column; this table maps file ids back
+// to file names, so diagnostics can be rendered without keeping tokens alive.
+//
+// Layout of a packed position, from the most significant bit:
+//   16 bits file id | 28 bits line | 20 bits column (0-based)
+class SourceMap {
+    // File ids must fit their 16 bits.
+    static final int MAX_FILES = 1 << 16;
+
+    private static final int LINE_BITS = 28;
+    private static final int COLUMN_BITS = 20;
+    private static final long LINE_MASK = (1L << LINE_BITS) - 1;
+    private static final long COLUMN_MASK = (1L << COLUMN_BITS) - 1;
+
+    private final HashMap<String, Integer> ids = new HashMap<>();
+    private final ArrayList<String> fileNames = new ArrayList<>();
+
+    // Returns the id of the given file, registering it on first use.
+    int addFile(String fileName) {
+        var id = ids.get(fileName);
+        if (id != null)
+            return id;
+
+        id = fileNames.size();
+        if (id == MAX_FILES)
+            throw new IllegalStateException("More than " + MAX_FILES + " files");
+        fileNames.add(fileName);
+        ids.put(fileName, id);
+        return id;
+    }
+
+    String fileName(int fileId) {
+        return fileNames.get(fileId);
+    }
+
+    int fileCount() {
+        return fileNames.size();
+    }
+
+    // Formats a position the same way lexical and syntax errors are reported,
+    // e.g. "A.cl", line 3:5
+    String describe(long pos) {
+        return "\"" + new File(fileName(fileId(pos))).getName() + "\", line "
+                + line(pos) + ":" + (column(pos) + 1);
+    }
+
+    static long pack(int fileId, int line, int column) {
+        if (fileId < 0 || fileId >= MAX_FILES)
+            throw new IllegalArgumentException("File id " + fileId + " out of range");
+        // Values that do not fit are clamped rather than overflowing into
+        // the neighbouring fields.
+        long l = Math.max(0, Math.min(line, LINE_MASK));
+        long c = Math.max(0, Math.min(column, COLUMN_MASK));
+        return ((long)fileId << (LINE_BITS + COLUMN_BITS)) | (l << COLUMN_BITS) | c;
+    }
+
+    // Moves a position to another file, keeping its line and column.
+    static long withFileId(long pos, int fileId) {
+        return pack(fileId, line(pos), column(pos));
+    }
+
+    static int fileId(long pos) {
+        return (int)(pos >>> (LINE_BITS + COLUMN_BITS));
+    }
+
+    static int line(long pos) {
+        return (int)((pos >>> COLUMN_BITS) & LINE_MASK);
+    }
+
+    static int column(long pos) {
+        return (int)(pos & COLUMN_MASK);
+    }
+}
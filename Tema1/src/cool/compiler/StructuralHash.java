@@ -0,0 +1,101 @@
+package cool.compiler;
+
+import java.util.List;
+
+// Structural hashing and equality of AST subtrees. Two subtrees are
+// structurally equal when they have the same kinds, the same symbols and
+// structurally equal children; positions are ignored. Symbol ids are only
+// comparable within one SymbolTable, so neither the hashes nor the equality
+// are meaningful across compiles.
+//
+// Every node computes its hash once, bottom-up, in its constructor (see
+// ASTNode.hash), so comparing hashes is a cheap first check.
+final class StructuralHash {
+    private StructuralHash() {
+    }
+
+    static int of(NodeKind kind, int a) {
+        return mix(31 * (kind.ordinal() + 1) + a);
+    }
+
+    static int of(NodeKind kind, int a, int b) {
+        return mix(31 * (31 * (kind.ordinal() + 1) + a) + b);
+    }
+
+    static int of(NodeKind kind, int a, int b, int c) {
+        return mix(31 * (31 * (31 * (kind.ordinal() + 1) + a) + b) + c);
+    }
+
+    static int of(NodeKind kind, int a, int b, int c, int d) {
+        return mix(31 * (31 * (31 * (31 * (kind.ordinal() + 1) + a) + b) + c) + d);
+    }
+
+    // Hash of an optional child; missing children hash to 0.
+    static int of(ASTNode node) {
+        return node == null ? 0 : node.hash;
+    }
+
+    static int of(List<? extends ASTNode> nodes) {
+        int h = nodes.size();
+        for (var node : nodes)
+            h = 31 * h + of(node);
+        return h;
+    }
+
+    // Final avalanche step (from MurmurHash3), so that small structural
+    // differences spread over all bits of the hash.
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    static boolean equal(ASTNode a, ASTNode b) {
+        if (a == b)
+            return true;
+        if (a == null || b == null || a.kind != b.kind || a.hash != b.hash)
+            return false;
+        if (!sameSymbols(a, b))
+            return false;
+
+        int count = ASTChildren.count(a);
+        if (count != ASTChildren.count(b))
+            return false;
+        for (int i = 0; i < count; i++)
+            if (!equal(ASTChildren.get(a, i), ASTChildren.get(b, i)))
+                return false;
+        return true;
+    }
+
+    // Compares the symbols held by two nodes of the same kind.
+    private static boolean sameSymbols(ASTNode a, ASTNode b) {
+        return switch (a.kind) {
+            case PROG, PARANTHESES, UNARY_MINUS, NOT, IS_VOID, IF, WHILE, BLOCK, LET, CASE -> true;
+            case CLASS -> ((ClassRule)a).type == ((ClassRule)b).type
+                    && ((ClassRule)a).inheritsType == ((ClassRule)b).inheritsType;
+            case FORMAL -> ((Formal)a).name == ((Formal)b).name && ((Formal)a).type == ((Formal)b).type;
+            case METHOD -> ((Method)a).name == ((Method)b).name && ((Method)a).type == ((Method)b).type;
+            case ATTRIBUTE -> ((Atribut)a).name == ((Atribut)b).name
+                    && ((Atribut)a).type == ((Atribut)b).type;
+            case INT -> ((Int)a).value == ((Int)b).value;
+            case BOOL -> ((Bool)a).value == ((Bool)b).value;
+            case STR -> ((Str)a).value == ((Str)b).value;
+            case ID -> ((Id)a).name == ((Id)b).name;
+            case MULT_DIV -> ((MultDiv)a).op == ((MultDiv)b).op;
+            case PLUS_MINUS -> ((PlusMinus)a).sign == ((PlusMinus)b).sign;
+            case RELATIONAL -> ((Relational)a).op == ((Relational)b).op;
+            case ASSIGN -> ((Assign)a).name == ((Assign)b).name;
+            case NEW -> ((New)a).type == ((New)b).type;
+            case CALL_METHOD -> ((CallMethod)a).name == ((CallMethod)b).name
+                    && ((CallMethod)a).type == ((CallMethod)b).type;
+            case CALL_FUNCTION -> ((CallFunction)a).name == ((CallFunction)b).name;
+            case LET_VAR -> ((LetVar)a).name == ((LetVar)b).name
+                    && ((LetVar)a).type == ((LetVar)b).type;
+            case CASE_BRANCH -> ((CaseBranch)a).name == ((CaseBranch)b).name
+                    && ((CaseBranch)a).type == ((CaseBranch)b).type;
+        };
+    }
+}
@@ -0,0 +1,51 @@
+package cool.compiler;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Interns the text of names, types, operators and literals, so that AST nodes
+// can refer to them through small integer ids instead of ANTLR tokens.
+//
+// The table is shared by the threads building classes in parallel (see
+// ASTBuilder): lookups of known symbols are lock-free, and only new symbols
+// take the lock. Ids depend on the order in which symbols are first seen, so
+// they may differ between runs; only the text they map to is stable.
+class SymbolTable {
+    // Id used for optional symbols that are missing (e.g. no inherited type).
+    static final int NONE = -1;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    // Written under the lock; the volatile write of the array publishes the
+    // names stored in it before the id is made visible through the map.
+    private volatile String[] names = new String[256];
+    private int size;
+
+    int intern(String name) {
+        var id = ids.get(name);
+        if (id != null)
+            return id;
+
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null)
+                return id;
+
+            var array = names;
+            if (size == array.length)
+                array = Arrays.copyOf(array, size * 2);
+            array[size] = name;
+            names = array;
+            id = size++;
+            ids.put(name, id);
+            return id;
+        }
+    }
+
+    String name(int id) {
+        return id == NONE ? null : names[id];
+    }
+
+    synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,26 @@
+package cool.compiler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Worker threads for the parallel phases (building the classes of large
+// files, rendering the parallel dump), one per core, shared by all
+// compilations in the process.
+//
+// Unlike the common fork-join pool, a fixed pool never falls back to a new
+// thread per task when there is only one core, and its threads keep no
+// per-compilation state: every task brings its own. The threads are
+// daemons, so they never keep the JVM from exiting, and have the stack of a
+// compiling thread (see Compiler.STACK_SIZE).
+final class Workers {
+    static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    static final ExecutorService POOL = Executors.newFixedThreadPool(PARALLELISM, runnable -> {
+        var thread = new Thread(null, runnable, "cool-worker", Compiler.STACK_SIZE);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Workers() {
+    }
+}
@@ -0,0 +1,324 @@
+package cool.tester;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import cool.compiler.Compiler;
+import cool.lexer.CoolLexer;
+
+// Grammar-based fuzzer for the whole compiler pipeline.
+//
+// Inputs start from programs made by ProgramGenerator with random shapes,
+// the tests in tests/tema1, inputs known to be expensive (deeply nested
+// comments and parentheses, huge unterminated strings) and whatever is
+// already in the corpus directory. Each input is mutated at byte level,
+// with the literal tokens of CoolLexer as a dictionary, and compiled
+// in-process.
+//
+// Crashes, stack overflows, timeouts and inputs whose compile time per byte
+// is an outlier are saved into the corpus directory, so later runs start
+// from them and they serve as a latency regression corpus.
+//
+// The compiler never checks for interruption, so a compile that times out
+// keeps running on its abandoned thread, competing with the following ones
+// for the CPU. From the first timeout on, compile times are therefore no
+// longer measured, and inputs are only checked for crashes, overflows and
+// timeouts.
+//
+// java cool.tester.Fuzzer [--seed=N] [--iterations=N] [--seconds=N]
+//     [--corpus=DIR] [--max-size=BYTES] [--outlier-factor=X] [--timeout=MS]
+public class Fuzzer {
+    // Inputs shorter than this are dominated by the fixed cost of a compile,
+    // so their time per byte says nothing.
+    private static final int MIN_OUTLIER_SIZE = 256;
+    private static final int WARMUP_EXECS = 200;
+
+    long seed = 1;
+    long iterations = 10_000;
+    long seconds = 0;
+    Path corpus = Paths.get("fuzz-corpus");
+    int maxSize = 1 << 20;
+    double outlierFactor = 10;
+    long timeoutMillis = 5_000;
+
+    private Random random;
+    private final List<byte[]> seeds = new ArrayList<>();
+    private byte[][] dictionary;
+    private ExecutorService worker;
+    private final Path input;
+
+    // Exponential moving average of the compile time per byte.
+    private double averageNanosPerByte;
+    private long execs, bytes, crashes, overflows, timeouts, outliers;
+    private long worstNanos;
+    private String worstInput;
+    // Set once a timed out compile has been left running.
+    private boolean leaked;
+
+    Fuzzer() throws IOException {
+        input = Files.createTempFile("fuzz", ".cl");
+        input.toFile().deleteOnExit();
+    }
+
+    public static void main(String[] args) throws IOException {
+        var fuzzer = new Fuzzer();
+        for (var arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("Unknown option: " + arg);
+                return;
+            }
+            var value = arg.substring(eq + 1);
+            switch (arg.substring(2, eq)) {
+                case "seed" -> fuzzer.seed = Long.parseLong(value);
+                case "iterations" -> fuzzer.iterations = Long.parseLong(value);
+                case "seconds" -> fuzzer.seconds = Long.parseLong(value);
+                case "corpus" -> fuzzer.corpus = Paths.get(value);
+                case "max-size" -> fuzzer.maxSize = Integer.parseInt(value);
+                case "outlier-factor" -> fuzzer.outlierFactor = Double.parseDouble(value);
+                case "timeout" -> fuzzer.timeoutMillis = Long.parseLong(value);
+                default -> {
+                    System.err.println("Unknown option: " + arg);
+                    return;
+                }
+            }
+        }
+        fuzzer.run();
+    }
+
+    void run() throws IOException {
+        random = new Random(seed);
+        Files.createDirectories(corpus);
+        dictionary = lexerTokens();
+        collectSeeds();
+        worker = newWorker();
+
+        long start = System.nanoTime();
+        long deadline = seconds > 0 ? start + seconds * 1_000_000_000L : Long.MAX_VALUE;
+        long lastReport = start;
+        for (long i = 0; (seconds > 0 || i < iterations) && System.nanoTime() < deadline; i++) {
+            // The seeds themselves run first, unmutated.
+            var data = i < seeds.size() ? seeds.get((int)i) : mutate(seeds.get(random.nextInt(seeds.size())));
+            execute(data);
+
+            long now = System.nanoTime();
+            if (now - lastReport > 10_000_000_000L) {
+                report(now - start);
+                lastReport = now;
+            }
+        }
+        report(System.nanoTime() - start);
+        worker.shutdownNow();
+    }
+
+    private void report(long elapsed) {
+        double secs = elapsed / 1e9;
+        System.out.printf("execs %d (%.0f/s, %.2f MB/s)  crashes %d  overflows %d  timeouts %d  slow %d%n",
+                execs, execs / secs, bytes / secs / (1 << 20), crashes, overflows, timeouts, outliers);
+        if (worstInput != null)
+            System.out.printf("worst latency %.2f ms: %s%n", worstNanos / 1e6, worstInput);
+        if (leaked)
+            System.out.println("latency not measured since the first timeout, whose compile is still running");
+    }
+
+    private void execute(byte[] data) throws IOException {
+        Files.write(input, data);
+        // Timed on the worker, so that queueing and thread startup are left
+        // out.
+        var task = worker.submit(() -> {
+            var discard = new PrintStream(OutputStream.nullOutputStream());
+            long start = System.nanoTime();
+            new Compiler(discard, discard).run(new String[] { input.toString() });
+            return System.nanoTime() - start;
+        });
+
+        long elapsed;
+        try {
+            elapsed = task.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // The compile cannot be interrupted; leave its thread behind.
+            task.cancel(true);
+            worker.shutdownNow();
+            worker = newWorker();
+            leaked = true;
+            timeouts++;
+            save("timeout", data);
+            return;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StackOverflowError) {
+                overflows++;
+                save("overflow", data);
+            } else {
+                crashes++;
+                var saved = save("crash", data);
+                var trace = new StringWriter();
+                e.getCause().printStackTrace(new PrintWriter(trace));
+                Files.writeString(Paths.get(saved.replaceFirst("\\.cl$", ".txt")), trace.toString());
+                System.out.println("crash in " + saved + ": " + e.getCause());
+            }
+            return;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+
+        execs++;
+        bytes += data.length;
+        if (leaked || data.length < MIN_OUTLIER_SIZE)
+            return;
+
+        double nanosPerByte = (double)elapsed / data.length;
+        if (execs > WARMUP_EXECS && nanosPerByte > outlierFactor * averageNanosPerByte) {
+            outliers++;
+            var saved = save("slow", data);
+            if (elapsed > worstNanos) {
+                worstNanos = elapsed;
+                worstInput = saved + " (" + data.length + " bytes)";
+            }
+            // Outliers are kept out of the average, or a run of them would
+            // raise the bar for the next ones.
+            return;
+        }
+        averageNanosPerByte = averageNanosPerByte == 0 ? nanosPerByte
+                : 0.99 * averageNanosPerByte + 0.01 * nanosPerByte;
+    }
+
+    private ExecutorService newWorker() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            // The stack of the command line compiler, so that only inputs
+            // that overflow it are reported.
+            var thread = new Thread(null, runnable, "fuzz-compile", Compiler.STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Files are named after the SHA-256 of their content, so the same finding
+    // is saved once, and different ones never collide.
+    private String save(String kind, byte[] data) throws IOException {
+        var name = kind + "-" + HexFormat.of().formatHex(sha256(data)) + ".cl";
+        var path = corpus.resolve(name);
+        if (!Files.exists(path))
+            Files.write(path, data);
+        return path.toString();
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform implements SHA-256.
+            throw new AssertionError(e);
+        }
+    }
+
+    private void collectSeeds() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            var generator = new ProgramGenerator();
+            generator.seed = random.nextLong();
+            generator.classes = 1 + random.nextInt(20);
+            generator.inheritance = random.nextInt(5);
+            generator.methods = random.nextInt(8);
+            generator.attributes = random.nextInt(5);
+            generator.exprDepth = 1 + random.nextInt(7);
+            generator.strings = random.nextDouble() / 2;
+            generator.comments = random.nextDouble() / 2;
+            generator.errors = random.nextInt(4) == 0 ? 1 + random.nextInt(3) : 0;
+            seeds.add(generator.generate().getBytes(StandardCharsets.UTF_8));
+        }
+
+        seeds.add(("class A { s : String <- \"" + "x".repeat(100_000)).getBytes(StandardCharsets.UTF_8));
+        // Nested comments are lexed in quadratic time; these still finish.
+        seeds.add(("class A { };\n" + "(*".repeat(400)).getBytes(StandardCharsets.UTF_8));
+        seeds.add(("class A { };\n" + "(* ".repeat(300) + "*) ".repeat(300)).getBytes(StandardCharsets.UTF_8));
+        seeds.add(("class A { f() : Int { " + "(".repeat(2_000) + "1" + ")".repeat(2_000) + " }; };")
+                .getBytes(StandardCharsets.UTF_8));
+        seeds.add(("class A { f() : Int { 1" + " + 1".repeat(20_000) + " }; };").getBytes(StandardCharsets.UTF_8));
+
+        addFiles(Paths.get("tests/tema1"));
+        addFiles(corpus);
+    }
+
+    private void addFiles(Path dir) throws IOException {
+        if (!Files.isDirectory(dir))
+            return;
+        try (var files = Files.list(dir)) {
+            for (var file : (Iterable<Path>)files.sorted()::iterator)
+                if (file.toString().endsWith(".cl"))
+                    seeds.add(Files.readAllBytes(file));
+        }
+    }
+
+    // The literal tokens of the lexer ('class', '<-', ...), plus the
+    // delimiters of comments and strings.
+    private static byte[][] lexerTokens() {
+        var tokens = new ArrayList<byte[]>();
+        var vocabulary = CoolLexer.VOCABULARY;
+        for (int type = 1; type <= vocabulary.getMaxTokenType(); type++) {
+            var literal = vocabulary.getLiteralName(type);
+            if (literal != null)
+                tokens.add(literal.substring(1, literal.length() - 1).getBytes(StandardCharsets.UTF_8));
+        }
+        for (var extra : new String[] { "(*", "*)", "--", "\"", "\\", "\n", "\0", "Int", "SELF_TYPE", "true" })
+            tokens.add(extra.getBytes(StandardCharsets.UTF_8));
+        return tokens.toArray(new byte[0][]);
+    }
+
+    private byte[] mutate(byte[] data) {
+        var out = new ByteArrayOutputStream(data.length + 64);
+        int rounds = 1 + random.nextInt(4);
+        for (int r = 0; r < rounds; r++) {
+            out.reset();
+            int pos = data.length == 0 ? 0 : random.nextInt(data.length);
+            switch (random.nextInt(6)) {
+                case 0 -> {
+                    // Flip a bit.
+                    data = data.clone();
+                    if (data.length > 0)
+                        data[pos] ^= (byte)(1 << random.nextInt(8));
+                    continue;
+                }
+                case 1 -> {
+                    // Insert a random byte.
+                    out.write(data, 0, pos);
+                    out.write(random.nextInt(256));
+                    out.write(data, pos, data.length - pos);
+                }
+                case 2 -> {
+                    // Delete a range.
+                    int len = Math.min(data.length - pos, 1 + random.nextInt(64));
+                    out.write(data, 0, pos);
+                    out.write(data, pos + len, data.length - pos - len);
+                }
+                case 3 -> {
+                    // Duplicate a range, repeatedly.
+                    int len = Math.min(data.length - pos, 1 + random.nextInt(64));
+                    int copies = 1 + random.nextInt(16);
+                    out.write(data, 0, pos + len);
+                    for (int c = 0; c < copies; c++)
+                        out.write(data, pos, len);
+                    out.write(data, pos + len, data.length - pos - len);
+                }
+                case 4 -> {
+                    // Insert a token.
+                    out.write(data, 0, pos);
+                    out.writeBytes(dictionary[random.nextInt(dictionary.length)]);
+                    out.write(data, pos, data.length - pos);
+                }
+                default -> {
+                    // Splice with the tail of another seed.
+                    var other = seeds.get(random.nextInt(seeds.size()));
+                    int from = other.length == 0 ? 0 : random.nextInt(other.length);
+                    out.write(data, 0, pos);
+                    out.write(other, from, other.length - from);
+                }
+            }
+            data = out.toByteArray();
+        }
+        return data.length > maxSize ? Arrays.copyOf(data, maxSize) : data;
+    }
+}
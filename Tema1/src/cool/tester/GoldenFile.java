@@ -0,0 +1,127 @@
+package cool.tester;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// Comparison of an output file with its golden reference. Both files are
+// memory-mapped and compared in bulk with ByteBuffer.mismatch; only when
+// they differ are line terminators looked at, and lines counted.
+//
+// As with reading the files line by line, "\r\n", "\n" and "\r" end lines
+// equally, and a missing terminator at the end of the last line does not
+// count as a difference.
+class GoldenFile {
+    // Returns 0 if the files match, otherwise the number of the first line
+    // that differs, which may be a line missing from the output.
+    static int compare(Path actual, Path expected) throws IOException {
+        try (var actualChannel = FileChannel.open(actual);
+             var expectedChannel = FileChannel.open(expected)) {
+            var a = actualChannel.map(FileChannel.MapMode.READ_ONLY, 0, actualChannel.size());
+            var b = expectedChannel.map(FileChannel.MapMode.READ_ONLY, 0, expectedChannel.size());
+            return firstDifferentLine(a, b);
+        }
+    }
+
+    // Lines are only counted once a difference that is not just a different
+    // line terminator has been found.
+    private static int firstDifferentLine(ByteBuffer a, ByteBuffer b) {
+        int i = 0, j = 0, n = a.limit(), m = b.limit();
+        while (true) {
+            int d = a.slice(i, n - i).mismatch(b.slice(j, m - j));
+            if (d < 0)
+                return 0;
+            i += d;
+            j += d;
+
+            // A "\r" ended the line on both sides, and one side follows it
+            // with a "\n".
+            if (i > 0 && j > 0 && a.get(i - 1) == '\r' && b.get(j - 1) == '\r') {
+                boolean aNewline = i < n && a.get(i) == '\n';
+                boolean bNewline = j < m && b.get(j) == '\n';
+                if (aNewline != bNewline) {
+                    if (aNewline)
+                        i++;
+                    else
+                        j++;
+                    continue;
+                }
+            }
+
+            int aTerminator = terminator(a, i), bTerminator = terminator(b, j);
+            if (aTerminator > 0 && bTerminator > 0) {
+                i += aTerminator;
+                j += bTerminator;
+                continue;
+            }
+            // One file ends in the middle of a line, which the other one
+            // terminates: the line is the same, and the difference is that
+            // only the other file goes on.
+            boolean aEndsLine = i == n && i > 0 && terminator(a, i - 1) == 0;
+            boolean bEndsLine = j == m && j > 0 && terminator(b, j - 1) == 0;
+            if ((aTerminator > 0 && bEndsLine) || (bTerminator > 0 && aEndsLine)) {
+                if (i + aTerminator == n && j + bTerminator == m)
+                    return 0;
+                return lineOf(a, i) + 1;
+            }
+            return lineOf(a, i);
+        }
+    }
+
+    // Length of the line terminator at the given offset, or 0.
+    private static int terminator(ByteBuffer buffer, int offset) {
+        if (offset >= buffer.limit())
+            return 0;
+        byte c = buffer.get(offset);
+        if (c == '\n')
+            return 1;
+        if (c == '\r')
+            return offset + 1 < buffer.limit() && buffer.get(offset + 1) == '\n' ? 2 : 1;
+        return 0;
+    }
+
+    private static int lineOf(ByteBuffer buffer, int offset) {
+        int line = 1;
+        for (int i = 0; i < offset; i++) {
+            byte c = buffer.get(i);
+            if (c == '\n' || (c == '\r' && (i + 1 >= buffer.limit() || buffer.get(i + 1) != '\n')))
+                line++;
+        }
+        return line;
+    }
+
+    // A few lines around the given line, from both files:
+    //   @@ line 12 @@
+    //     class
+    //   - expected line
+    //   + actual line
+    static String context(Path actual, Path expected, int line) throws IOException {
+        var actualLines = lines(actual, line);
+        var expectedLines = lines(expected, line);
+        var sb = new StringBuilder();
+        sb.append("  @@ line ").append(line).append(" @@\n");
+        if (line > 1)
+            sb.append("    ").append(expectedLines[0]).append('\n');
+        sb.append("  - ").append(expectedLines[1]).append('\n');
+        sb.append("  + ").append(actualLines[1]).append('\n');
+        return sb.toString();
+    }
+
+    // The given line and the one before it.
+    private static String[] lines(Path path, int line) throws IOException {
+        var result = new String[] { "", "<end of file>" };
+        try (var reader = new BufferedReader(new InputStreamReader(Files.newInputStream(path),
+                StandardCharsets.UTF_8))) {
+            String text;
+            for (int i = 1; i <= line && (text = reader.readLine()) != null; i++) {
+                if (i == line - 1)
+                    result[0] = text;
+                else if (i == line)
+                    result[1] = text;
+            }
+        }
+        return result;
+    }
+}
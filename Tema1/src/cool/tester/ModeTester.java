@@ -0,0 +1,278 @@
+package cool.tester;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+import cool.compiler.Compiler;
+
+// Checks the output modes of the compiler against golden files. Run from the
+// Tema1 directory, like Tester1:
+//
+// java cool.tester.ModeTester
+//
+// - --hash-cons, --parallel-print, --dump-only and --gzip must print the same
+//   tree dump as a plain compile, so they run on every test of tests/tema1,
+//   against its .ref file (the --gzip output once decompressed).
+// - --ast-cache runs three times on a copy of each test of tests/tema1: the
+//   first compile writes the .coolast artifact, the second loads it and must
+//   not write it again, and the third, on a truncated artifact, must fall
+//   back to parsing and write the same artifact again. All three must print
+//   the .ref file.
+// - --format=json|sexp|binary run on the tests of tests/formats: X.cl
+//   against X.json.ref, X.sexp.ref and X.binary.ref.
+// - --result-cache runs twice on a copy of each test of tests/tema1: the
+//   second compile must replay the first one's output byte for byte without
+//   storing it again. Once the copy is edited, it must miss and print what a
+//   compile without the cache prints. Then generated programs, each with a
+//   dump of about 200 KB, are compiled into a cache of 1 MB
+//   (--result-cache-size=1), which must evict the least recently used.
+//
+// Outputs are written to a temporary directory, which is kept if a check
+// fails.
+public class ModeTester {
+    private static final String[] SAME_DUMP_MODES = { "--hash-cons", "--parallel-print", "--dump-only", "--gzip" };
+    private static final String[] FORMATS = { "json", "sexp", "binary" };
+    // Set on artifacts before they are loaded; a rewritten artifact gets a
+    // newer modification time.
+    private static final FileTime OLD = FileTime.fromMillis(0);
+
+    private final Path work;
+    private int passed, failed;
+
+    private ModeTester() throws IOException {
+        work = Files.createTempDirectory("mode-tester");
+    }
+
+    public static void main(String[] args) throws IOException {
+        var tester = new ModeTester();
+        var tests = list(Paths.get("tests/tema1"));
+
+        for (var mode : SAME_DUMP_MODES)
+            for (var test : tests)
+                tester.checkSameDump(test, mode);
+        for (var test : tests)
+            tester.checkAstCache(test);
+        for (var test : list(Paths.get("tests/formats")))
+            for (var format : FORMATS)
+                tester.checkFormat(test, format);
+        for (var test : tests)
+            tester.checkResultCache(test);
+        tester.checkResultCacheEviction();
+
+        System.out.println("Passed: " + tester.passed + "/" + (tester.passed + tester.failed));
+        if (tester.failed > 0) {
+            System.out.println("Outputs kept in " + tester.work);
+            System.exit(1);
+        }
+        tester.deleteWork();
+    }
+
+    private void checkSameDump(Path test, String mode) throws IOException {
+        var out = output(test, mode.substring(2));
+        compile(out, mode, test.toString());
+        if (mode.equals("--gzip"))
+            gunzip(out);
+        report(test, mode, difference(out, reference(test, "ref")));
+    }
+
+    private void checkAstCache(Path test) throws IOException {
+        var dir = Files.createDirectories(work.resolve("ast-cache"));
+        var source = Files.copy(test, dir.resolve(test.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        var name = source.getFileName().toString();
+        var artifact = dir.resolve(name.substring(0, name.length() - ".cl".length()) + ".coolast");
+        var ref = reference(test, "ref");
+
+        Files.deleteIfExists(artifact);
+        var out = output(test, "ast-cache-write");
+        compile(out, "--ast-cache", source.toString());
+        var problem = difference(out, ref);
+        // Tests with errors have no AST to keep.
+        if (!Files.exists(artifact)) {
+            report(test, "--ast-cache", problem);
+            return;
+        }
+        report(test, "--ast-cache write", problem);
+        var bytes = Files.readAllBytes(artifact);
+
+        Files.setLastModifiedTime(artifact, OLD);
+        out = output(test, "ast-cache-load");
+        compile(out, "--ast-cache", source.toString());
+        problem = difference(out, ref);
+        if (problem == null && !Files.getLastModifiedTime(artifact).equals(OLD))
+            problem = "Failed: the artifact was written again instead of loaded\n";
+        report(test, "--ast-cache load", problem);
+
+        Files.write(artifact, Arrays.copyOf(bytes, bytes.length / 2));
+        out = output(test, "ast-cache-damaged");
+        compile(out, "--ast-cache", source.toString());
+        problem = difference(out, ref);
+        if (problem == null && !Arrays.equals(Files.readAllBytes(artifact), bytes))
+            problem = "Failed: the damaged artifact was not written again\n";
+        report(test, "--ast-cache damaged", problem);
+    }
+
+    private void checkFormat(Path test, String format) throws IOException {
+        var out = output(test, format);
+        compile(out, "--format=" + format, test.toString());
+        report(test, "--format=" + format, difference(out, reference(test, format + ".ref")));
+    }
+
+    private void checkResultCache(Path test) throws IOException {
+        // One cache per test, since the compiler keeps a cache open once it
+        // has used it.
+        var name = test.getFileName().toString();
+        var dir = Files.createDirectories(work.resolve("result-cache").resolve(name.substring(0, name.length() - 3)));
+        var cache = "--result-cache=" + dir.resolve("cache");
+        var source = Files.copy(test, dir.resolve(test.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+
+        var first = output(test, "result-cache-store");
+        compile(first, cache, source.toString());
+        var entries = entries(dir.resolve("cache"));
+        var problem = difference(first, reference(test, "ref"));
+        if (problem == null && entries.size() != 1)
+            problem = "Failed: " + entries.size() + " cache entries instead of 1\n";
+        if (problem != null) {
+            report(test, "--result-cache", problem);
+            return;
+        }
+
+        // A stored entry would be moved into place again, with a new time.
+        Files.setLastModifiedTime(entries.get(0), OLD);
+        var second = output(test, "result-cache-hit");
+        compile(second, cache, source.toString());
+        if (!Arrays.equals(Files.readAllBytes(first), Files.readAllBytes(second)))
+            problem = "Failed: the replayed output differs from the first one\n";
+        else if (!Files.getLastModifiedTime(entries.get(0)).equals(OLD))
+            problem = "Failed: the output was compiled again instead of replayed\n";
+        report(test, "--result-cache hit", problem);
+
+        Files.writeString(source, "class Edited {};\n", StandardOpenOption.APPEND);
+        var edited = output(test, "result-cache-edited");
+        compile(edited, cache, source.toString());
+        var plain = output(test, "result-cache-plain");
+        compile(plain, source.toString());
+        problem = null;
+        if (!Arrays.equals(Files.readAllBytes(edited), Files.readAllBytes(plain)))
+            problem = "Failed: the edited file printed the output of the old one\n";
+        else if (entries(dir.resolve("cache")).size() != 2)
+            problem = "Failed: the output of the edited file was not stored\n";
+        report(test, "--result-cache edited", problem);
+    }
+
+    private void checkResultCacheEviction() throws IOException {
+        var dir = Files.createDirectories(work.resolve("result-cache-eviction"));
+        var cache = dir.resolve("cache");
+        var generator = new ProgramGenerator();
+        generator.classes = 60;
+
+        // Entries in the order they were stored.
+        var stored = new ArrayList<Path>();
+        String problem = null;
+        for (int i = 0; i < 6 && problem == null; i++) {
+            generator.seed = i;
+            var source = Files.writeString(dir.resolve("generated-" + i + ".cl"), generator.generate());
+            var before = entries(cache);
+            compile(output(source, "result-cache"), "--result-cache=" + cache, "--result-cache-size=1",
+                    source.toString());
+            var added = new ArrayList<>(entries(cache));
+            added.removeAll(before);
+            if (added.size() != 1)
+                problem = "Failed: generated-" + i + ".cl added " + added.size() + " entries instead of 1\n";
+            else
+                stored.add(added.get(0));
+        }
+
+        if (problem == null) {
+            long size = 0;
+            for (var entry : entries(cache))
+                size += Files.size(entry);
+            // The entries left must be the newest ones.
+            int kept = entries(cache).size();
+            if (size > 1 << 20)
+                problem = "Failed: " + size + " bytes of entries in a cache of 1 MB\n";
+            else if (kept == stored.size())
+                problem = "Failed: no entry was evicted\n";
+            else if (!entries(cache).equals(stored.subList(stored.size() - kept, stored.size()).stream().sorted().toList()))
+                problem = "Failed: entries other than the least recently used were evicted\n";
+        }
+        report(dir, "--result-cache-size", problem);
+    }
+
+    // The entry files of a result cache, sorted.
+    private static List<Path> entries(Path cache) throws IOException {
+        if (!Files.isDirectory(cache))
+            return List.of();
+        try (var files = Files.walk(cache)) {
+            return files.filter(file -> file.toString().endsWith(".res")).sorted().toList();
+        }
+    }
+
+    private static void compile(Path out, String... args) throws IOException {
+        try (var stream = new PrintStream(Files.newOutputStream(out), false, StandardCharsets.UTF_8)) {
+            try {
+                new Compiler(stream, stream, StandardCharsets.UTF_8).run(args);
+            } catch (RuntimeException | StackOverflowError e) {
+                // Fails this check only.
+                e.printStackTrace(stream);
+            }
+        }
+    }
+
+    // Replaces a gzip output by its contents. Diagnostics are printed
+    // uncompressed, so an output that is not gzip data is left as it is.
+    private static void gunzip(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < 2 || bytes[0] != (byte)0x1f || bytes[1] != (byte)0x8b)
+            return;
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            Files.write(file, in.readAllBytes());
+        }
+    }
+
+    // Returns null if the output matches its golden file, otherwise where
+    // they differ.
+    private static String difference(Path actual, Path expected) throws IOException {
+        int line = GoldenFile.compare(actual, expected);
+        if (line == 0)
+            return null;
+        return "Failed at line " + line + "\n" + GoldenFile.context(actual, expected, line);
+    }
+
+    private void report(Path test, String mode, String problem) {
+        System.out.printf("%-30s %-20s -> ", test.getFileName(), mode);
+        if (problem == null) {
+            System.out.println("OK");
+            passed++;
+        } else {
+            System.out.print(problem);
+            failed++;
+        }
+    }
+
+    private Path output(Path test, String mode) {
+        var name = test.getFileName().toString();
+        return work.resolve(name.substring(0, name.length() - ".cl".length()) + "." + mode + ".out");
+    }
+
+    private static Path reference(Path test, String suffix) {
+        var name = test.toString();
+        return Paths.get(name.substring(0, name.length() - "cl".length()) + suffix);
+    }
+
+    private static List<Path> list(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.filter(file -> file.toString().endsWith(".cl")).sorted().toList();
+        }
+    }
+
+    private void deleteWork() throws IOException {
+        try (var files = Files.walk(work)) {
+            for (var file : (Iterable<Path>)files.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package cool.tester;
+
+import java.io.*;
+import java.util.*;
+
+// Generates syntactically valid COOL programs of a chosen size and shape,
+// to measure how the compiler scales beyond the small tests. The same seed
+// and options always give the same program.
+//
+// java cool.tester.ProgramGenerator [--seed=N] [--classes=N] [--inheritance=N]
+//     [--methods=N] [--attributes=N] [--expr-depth=N] [--strings=P]
+//     [--comments=P] [--errors=N] [--out=FILE]
+//
+// --inheritance is the maximum depth of the class hierarchy, --strings the
+// probability of a literal being a string and --comments the probability
+// of a comment before a feature. --errors injects that many lexical errors
+// (invalid characters, unterminated strings, unmatched comment ends).
+public class ProgramGenerator {
+    long seed = 42;
+    int classes = 10;
+    int inheritance = 3;
+    int methods = 5;
+    int attributes = 3;
+    int exprDepth = 4;
+    double strings = 0.1;
+    double comments = 0.1;
+    int errors = 0;
+
+    private Random random;
+    // Names visible in the feature being generated.
+    private final List<String> names = new ArrayList<>();
+    // Feature slots that get an error before them.
+    private Set<Integer> errorSlots;
+    private int slot;
+
+    public static void main(String[] args) throws IOException {
+        var generator = new ProgramGenerator();
+        String outFile = null;
+        for (var arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("Unknown option: " + arg);
+                return;
+            }
+            var value = arg.substring(eq + 1);
+            switch (arg.substring(2, eq)) {
+                case "seed" -> generator.seed = Long.parseLong(value);
+                case "classes" -> generator.classes = Integer.parseInt(value);
+                case "inheritance" -> generator.inheritance = Integer.parseInt(value);
+                case "methods" -> generator.methods = Integer.parseInt(value);
+                case "attributes" -> generator.attributes = Integer.parseInt(value);
+                case "expr-depth" -> generator.exprDepth = Integer.parseInt(value);
+                case "strings" -> generator.strings = Double.parseDouble(value);
+                case "comments" -> generator.comments = Double.parseDouble(value);
+                case "errors" -> generator.errors = Integer.parseInt(value);
+                case "out" -> outFile = value;
+                default -> {
+                    System.err.println("Unknown option: " + arg);
+                    return;
+                }
+            }
+        }
+
+        try (var out = outFile == null
+                ? new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16)
+                : new BufferedWriter(new FileWriter(outFile), 1 << 16)) {
+            generator.generate(out);
+        }
+    }
+
+    String generate() {
+        var out = new StringWriter();
+        try {
+            generate(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    void generate(Writer out) throws IOException {
+        random = new Random(seed);
+        slot = 0;
+        int slots = classes * (methods + attributes);
+        errorSlots = new HashSet<>();
+        if (slots > 0)
+            while (errorSlots.size() < Math.min(errors, slots))
+                errorSlots.add(random.nextInt(slots));
+
+        // Each class inherits from an earlier one, unless that would make
+        // the hierarchy deeper than allowed.
+        var depth = new int[classes];
+        var sb = new StringBuilder();
+        for (int c = 0; c < classes; c++) {
+            sb.setLength(0);
+            sb.append("class C").append(c);
+            if (c > 0 && inheritance > 0 && random.nextInt(3) > 0) {
+                int parent = random.nextInt(c);
+                if (depth[parent] < inheritance) {
+                    depth[c] = depth[parent] + 1;
+                    sb.append(" inherits C").append(parent);
+                }
+            }
+            sb.append(" {\n");
+            generateClass(sb);
+            sb.append("};\n\n");
+            out.write(sb.toString());
+        }
+    }
+
+    private void generateClass(StringBuilder sb) {
+        var attributeNames = new ArrayList<String>();
+        for (int a = 0; a < attributes; a++) {
+            beforeFeature(sb);
+            var name = "a" + a;
+            names.clear();
+            names.addAll(attributeNames);
+            sb.append("    ").append(name).append(" : ").append(type());
+            if (random.nextBoolean()) {
+                sb.append(" <- ");
+                expr(sb, Math.max(0, exprDepth - 2));
+            }
+            sb.append(";\n");
+            attributeNames.add(name);
+        }
+
+        for (int m = 0; m < methods; m++) {
+            beforeFeature(sb);
+            names.clear();
+            names.addAll(attributeNames);
+            sb.append("    m").append(m).append("(");
+            int formals = random.nextInt(4);
+            for (int f = 0; f < formals; f++) {
+                if (f > 0)
+                    sb.append(", ");
+                var name = "p" + f;
+                sb.append(name).append(" : ").append(type());
+                names.add(name);
+            }
+            sb.append(") : ").append(type()).append(" {\n        {\n");
+            int statements = 1 + random.nextInt(3);
+            for (int s = 0; s < statements; s++) {
+                sb.append("            ");
+                expr(sb, exprDepth);
+                sb.append(";\n");
+            }
+            sb.append("        }\n    };\n");
+        }
+    }
+
+    private void beforeFeature(StringBuilder sb) {
+        if (errorSlots.contains(slot++))
+            sb.append("    ").append(lexicalError()).append('\n');
+        if (random.nextDouble() < comments) {
+            if (random.nextBoolean())
+                sb.append("    -- ").append(words()).append('\n');
+            else
+                sb.append("    (* ").append(words()).append(" (* nested *) ").append(words()).append(" *)\n");
+        }
+    }
+
+    private String lexicalError() {
+        return switch (random.nextInt(3)) {
+            case 0 -> "#";
+            case 1 -> "\"unterminated " + words();
+            default -> "*)";
+        };
+    }
+
+    private String type() {
+        return switch (random.nextInt(5)) {
+            case 0 -> "Int";
+            case 1 -> "String";
+            case 2 -> "Bool";
+            case 3 -> "Object";
+            default -> classes > 0 ? "C" + random.nextInt(classes) : "IO";
+        };
+    }
+
+    private String name() {
+        return names.isEmpty() || random.nextInt(4) == 0 ? "self" : names.get(random.nextInt(names.size()));
+    }
+
+    private String words() {
+        var sb = new StringBuilder();
+        int count = 1 + random.nextInt(6);
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static final String[] WORDS = {
+        "lorem", "ipsum", "dolor", "sit", "amet", "class", "loop", "x", "42", "+", "<-"
+    };
+
+    private void literal(StringBuilder sb) {
+        if (random.nextDouble() < strings) {
+            sb.append('"').append(words());
+            switch (random.nextInt(4)) {
+                case 0 -> sb.append("\\n");
+                case 1 -> sb.append("\\t");
+                case 2 -> sb.append("\\\"quoted\\\"");
+                default -> { }
+            }
+            sb.append('"');
+            return;
+        }
+        switch (random.nextInt(3)) {
+            case 0 -> sb.append(random.nextInt(1000));
+            case 1 -> sb.append(random.nextBoolean() ? "true" : "false");
+            default -> sb.append(name());
+        }
+    }
+
+    // Operands of operators and dispatch receivers are parenthesized unless
+    // they are literals, so that the program parses as generated.
+    private void operand(StringBuilder sb, int depth) {
+        if (depth == 0) {
+            literal(sb);
+            return;
+        }
+        sb.append('(');
+        expr(sb, depth);
+        sb.append(')');
+    }
+
+    private void expr(StringBuilder sb, int depth) {
+        if (depth == 0 || random.nextInt(5) == 0) {
+            literal(sb);
+            return;
+        }
+        int d = depth - 1;
+        switch (random.nextInt(16)) {
+            case 0 -> {
+                operand(sb, d);
+                sb.append(' ').append("+-*/".charAt(random.nextInt(4))).append(' ');
+                operand(sb, d);
+            }
+            case 1 -> {
+                operand(sb, d);
+                sb.append(switch (random.nextInt(3)) {
+                    case 0 -> " < ";
+                    case 1 -> " <= ";
+                    default -> " = ";
+                });
+                operand(sb, d);
+            }
+            case 2 -> {
+                sb.append("not ");
+                operand(sb, d);
+            }
+            case 3 -> {
+                sb.append('~');
+                operand(sb, d);
+            }
+            case 4 -> {
+                sb.append("isvoid ");
+                operand(sb, d);
+            }
+            case 5 -> sb.append("new ").append(type());
+            case 6 -> {
+                sb.append("if ");
+                expr(sb, d);
+                sb.append(" then ");
+                expr(sb, d);
+                sb.append(" else ");
+                expr(sb, d);
+                sb.append(" fi");
+            }
+            case 7 -> {
+                sb.append("while ");
+                expr(sb, d);
+                sb.append(" loop ");
+                expr(sb, d);
+                sb.append(" pool");
+            }
+            case 8 -> {
+                sb.append("{ ");
+                int count = 1 + random.nextInt(3);
+                for (int i = 0; i < count; i++) {
+                    expr(sb, d);
+                    sb.append("; ");
+                }
+                sb.append('}');
+            }
+            case 9 -> {
+                sb.append("let ");
+                int count = 1 + random.nextInt(2);
+                for (int i = 0; i < count; i++) {
+                    if (i > 0)
+                        sb.append(", ");
+                    sb.append("v").append(i).append(" : ").append(type());
+                    if (random.nextBoolean()) {
+                        sb.append(" <- ");
+                        expr(sb, d);
+                    }
+                }
+                sb.append(" in ");
+                expr(sb, d);
+            }
+            case 10 -> {
+                sb.append("case ");
+                expr(sb, d);
+                sb.append(" of ");
+                int count = 1 + random.nextInt(3);
+                for (int i = 0; i < count; i++) {
+                    sb.append("b").append(i).append(" : ").append(type()).append(" => ");
+                    expr(sb, d);
+                    sb.append("; ");
+                }
+                sb.append("esac");
+            }
+            case 11, 12 -> {
+                operand(sb, d);
+                if (random.nextInt(4) == 0)
+                    sb.append('@').append(type());
+                sb.append(".m").append(random.nextInt(Math.max(1, methods)));
+                arguments(sb, d);
+            }
+            case 13 -> {
+                sb.append('m').append(random.nextInt(Math.max(1, methods)));
+                arguments(sb, d);
+            }
+            case 14 -> {
+                if (names.isEmpty()) {
+                    literal(sb);
+                    return;
+                }
+                sb.append(names.get(random.nextInt(names.size()))).append(" <- ");
+                expr(sb, d);
+            }
+            default -> {
+                sb.append('(');
+                expr(sb, d);
+                sb.append(')');
+            }
+        }
+    }
+
+    private void arguments(StringBuilder sb, int depth) {
+        sb.append('(');
+        int count = random.nextInt(3);
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append(", ");
+            expr(sb, depth);
+        }
+        sb.append(')');
+    }
+}
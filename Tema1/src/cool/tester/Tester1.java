@@ -1,12 +1,27 @@
 package cool.tester;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
 
 import cool.compiler.Compiler;
 
 public class Tester1 {
-    // java -cp "bin;antlr-4.8-complete.jar;%CLASSPATH%" coolc.tester.Tester1
+    private static final String USAGE = "Usage: Tester1 [threads] [--time] [--warmup=N] [--repeat=N]\n"
+            + "    [--baseline=FILE] [--save-baseline] [--threshold=PERCENT]";
+
+    // java -cp "bin;antlr-4.8-complete.jar;%CLASSPATH%" coolc.tester.Tester1 [threads]
+    //     [--time] [--warmup=N] [--repeat=N] [--baseline=FILE] [--save-baseline]
+    //     [--threshold=PERCENT]
+    //
+    // The tests run concurrently, each compiling with its own output stream,
+    // and the results are reported in file name order.
+    //
+    // With --time, every passing test is then compiled again, alone, to
+    // measure it (see Timing). Given a baseline file, a test whose median
+    // CPU time or allocation grew by more than the threshold fails;
+    // --save-baseline writes the new measurements to the file instead.
     public static void main(String[] args) throws IOException {
         final String TEST_DIR_NAME = "tests/tema1";
         var testDir = new File(TEST_DIR_NAME);
@@ -17,56 +32,124 @@ public class Tester1 {
             }
         };
         
-        var oldOut = System.out;
-        var oldErr = System.err;
+        var threads = Runtime.getRuntime().availableProcessors();
+        var time = false;
+        var warmup = 10;
+        var repeat = 30;
+        String baselineFile = null;
+        var saveBaseline = false;
+        var threshold = 25;
+        for (var arg : args) {
+            try {
+                if (arg.equals("--time"))
+                    time = true;
+                else if (arg.startsWith("--warmup="))
+                    warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+                else if (arg.startsWith("--repeat="))
+                    repeat = Integer.parseInt(arg.substring("--repeat=".length()));
+                else if (arg.startsWith("--baseline="))
+                    baselineFile = arg.substring("--baseline=".length());
+                else if (arg.equals("--save-baseline"))
+                    saveBaseline = true;
+                else if (arg.startsWith("--threshold="))
+                    threshold = Integer.parseInt(arg.substring("--threshold=".length()));
+                else
+                    threads = Integer.parseInt(arg);
+            } catch (NumberFormatException e) {
+                usage("Invalid argument: " + arg);
+            }
+        }
+        if (threads < 1 || warmup < 0 || repeat < 1 || threshold < 0)
+            usage("Invalid argument: threads and --repeat must be positive, "
+                    + "--warmup and --threshold not negative");
+        if (saveBaseline && baselineFile == null)
+            usage("--save-baseline needs --baseline=FILE");
+        time |= baselineFile != null;
+
+        var executor = Executors.newFixedThreadPool(threads);
         
         var total = 0;
 
         var files = testDir.listFiles(filenameFilter);
         Arrays.sort(files);
-        for (var file : files) {
-            var inPath = file.getPath();
-            var outPath = inPath.replace(".cl", ".out");
-            var newOut = new PrintStream(outPath, "UTF-8");
-            System.setOut(newOut);
-            System.setErr(newOut);
-            Compiler.main(new String[] { inPath });
-            
-            oldOut.printf("%-30s -> ", file.getName());
-            var result = compare(outPath, inPath.replace(".cl", ".ref"));
-            if (result == 0) {
-                oldOut.println("OK");
+        var futures = new ArrayList<Future<Integer>>();
+        for (var file : files)
+            futures.add(executor.submit(() -> runTest(file)));
+        executor.shutdown();
+
+        var results = new int[files.length];
+        for (int i = 0; i < files.length; i++) {
+            try {
+                results[i] = futures.get(i).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException("Test " + files[i].getName() + " could not run", e);
+            }
+        }
+
+        Map<String, Timing> baseline = Map.of();
+        if (baselineFile != null && !saveBaseline && new File(baselineFile).exists())
+            baseline = Timing.loadBaseline(new File(baselineFile).toPath());
+        var timings = new HashMap<String, Timing>();
+
+        for (int i = 0; i < files.length; i++) {
+            var name = files[i].getName();
+            var result = results[i];
+            System.out.printf("%-30s -> ", name);
+            if (result != 0) {
+                System.out.println("Failed at line " + result);
+                var inPath = files[i].getPath();
+                System.out.print(GoldenFile.context(Paths.get(inPath.replace(".cl", ".out")),
+                        Paths.get(inPath.replace(".cl", ".ref")), result));
+                continue;
+            }
+            if (!time) {
+                System.out.println("OK");
+                total += 5;
+                continue;
+            }
+
+            var timing = Timing.measure(files[i].getPath(), warmup, repeat);
+            timings.put(name, timing);
+            var regression = baseline.containsKey(name)
+                    ? timing.regression(baseline.get(name), threshold) : null;
+            if (regression == null) {
+                System.out.println("OK  " + timing);
                 total += 5;
             }
             else
-                oldOut.println("Failed at line " + result);
+                System.out.println("Regressed: " + regression);
         }
         
-        oldOut.println("Total: " + total);
-        
-        System.setOut(oldOut);
-        System.setErr(oldErr);
+        System.out.println("Total: " + total);
+
+        if (saveBaseline)
+            Timing.saveBaseline(new File(baselineFile).toPath(), timings);
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println(USAGE);
+        System.exit(1);
+    }
+
+    // Compiles one test into its .out file and compares it to the .ref file.
+    private static int runTest(File file) throws IOException {
+        var inPath = file.getPath();
+        var outPath = inPath.replace(".cl", ".out");
+        try (var newOut = new PrintStream(outPath, "UTF-8")) {
+            try {
+                new Compiler(newOut, newOut).run(new String[] { inPath });
+            } catch (RuntimeException | StackOverflowError e) {
+                // Fails this test only.
+                e.printStackTrace(newOut);
+            }
+        }
+        return compare(outPath, inPath.replace(".cl", ".ref"));
     }
     
     public static int compare(String fileName1, String fileName2)
             throws IOException {
-        try (LineNumberReader reader1 = new LineNumberReader(new FileReader(fileName1));
-             LineNumberReader reader2 = new LineNumberReader(new FileReader(fileName2));
-        ) {
-            String line1 = null, line2 = null;
-            
-            while ((line1 = reader1.readLine()) != null
-                    & (line2 = reader2.readLine()) != null) {
-                
-                if (! line1.equals(line2))
-                    return reader1.getLineNumber();
-            }
-            
-            if (line1 != null || line2 != null)
-                return reader1.getLineNumber() + 1;
-            
-            return 0;
-        }
+        return GoldenFile.compare(Paths.get(fileName1), Paths.get(fileName2));
     }
 
 }
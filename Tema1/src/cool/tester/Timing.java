@@ -0,0 +1,146 @@
+package cool.tester;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.util.*;
+
+import cool.compiler.Compiler;
+
+// Wall time, CPU time and allocated bytes of compiling one test, measured
+// over repeated runs after a warm-up. The output of the timed runs is
+// discarded.
+//
+// CPU time and allocation are those of the calling thread plus those of the
+// compiler's worker threads, which the parallel phases run on. The workers
+// are found by name, so work that other threads of the process do at the
+// same time is not counted.
+class Timing {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    // The name of the threads of cool.compiler.Workers.POOL.
+    private static final String WORKER_NAME = "cool-worker";
+
+    // Changes smaller than these are measurement noise on small tests.
+    private static final long MIN_CPU_DELTA = 1_000_000;
+    private static final long MIN_ALLOCATED_DELTA = 64 * 1024;
+
+    long wallMedian, wallP95;
+    long cpuMedian, cpuP95;
+    long allocatedMedian;
+
+    static Timing measure(String fileName, int warmup, int repeat) throws IOException {
+        var discard = new PrintStream(OutputStream.nullOutputStream());
+        for (int i = 0; i < warmup; i++)
+            new Compiler(discard, discard).run(new String[] { fileName });
+
+        var wall = new long[repeat];
+        var cpu = new long[repeat];
+        var allocated = new long[repeat];
+        for (int i = 0; i < repeat; i++) {
+            long bytes = allocatedBytes();
+            long cpuStart = cpuTime();
+            long start = System.nanoTime();
+            new Compiler(discard, discard).run(new String[] { fileName });
+            wall[i] = System.nanoTime() - start;
+            cpu[i] = cpuTime() - cpuStart;
+            allocated[i] = allocatedBytes() - bytes;
+        }
+
+        var timing = new Timing();
+        Arrays.sort(wall);
+        Arrays.sort(cpu);
+        Arrays.sort(allocated);
+        timing.wallMedian = percentile(wall, 50);
+        timing.wallP95 = percentile(wall, 95);
+        timing.cpuMedian = percentile(cpu, 50);
+        timing.cpuP95 = percentile(cpu, 95);
+        timing.allocatedMedian = percentile(allocated, 50);
+        return timing;
+    }
+
+    // Workers are never stopped, so a worker missing from the totals taken
+    // before a run was started during it, from zero.
+    private static long cpuTime() {
+        return THREADS.getCurrentThreadCpuTime() + sum(THREADS.getThreadCpuTime(workers()));
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getCurrentThreadAllocatedBytes() + sum(THREADS.getThreadAllocatedBytes(workers()));
+    }
+
+    private static long[] workers() {
+        var ids = THREADS.getAllThreadIds();
+        var infos = THREADS.getThreadInfo(ids);
+        int count = 0;
+        for (int i = 0; i < ids.length; i++)
+            if (infos[i] != null && infos[i].getThreadName().equals(WORKER_NAME))
+                ids[count++] = ids[i];
+        return Arrays.copyOf(ids, count);
+    }
+
+    // Counters of threads that ended are -1.
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (var value : values)
+            if (value > 0)
+                sum += value;
+        return sum;
+    }
+
+    // Nearest-rank percentile of sorted values.
+    private static long percentile(long[] sorted, int p) {
+        int rank = (int)Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("wall %.2f ms (p95 %.2f)  cpu %.2f ms (p95 %.2f)  alloc %.1f KB",
+                wallMedian / 1e6, wallP95 / 1e6, cpuMedian / 1e6, cpuP95 / 1e6, allocatedMedian / 1024.0);
+    }
+
+    // Returns a description of the regression, or null if the medians are
+    // within the given percentage over the baseline, or grew by less than a
+    // small absolute amount. CPU time is compared instead of wall time, since
+    // it does not depend on the machine load.
+    String regression(Timing baseline, int thresholdPercent) {
+        double limit = 1 + thresholdPercent / 100.0;
+        if (cpuMedian > baseline.cpuMedian * limit && cpuMedian - baseline.cpuMedian > MIN_CPU_DELTA)
+            return String.format("cpu %.2f ms, baseline %.2f ms", cpuMedian / 1e6, baseline.cpuMedian / 1e6);
+        if (allocatedMedian > baseline.allocatedMedian * limit
+                && allocatedMedian - baseline.allocatedMedian > MIN_ALLOCATED_DELTA)
+            return String.format("alloc %.1f KB, baseline %.1f KB",
+                    allocatedMedian / 1024.0, baseline.allocatedMedian / 1024.0);
+        return null;
+    }
+
+    // Baseline files have one line per test:
+    // name wallMedian wallP95 cpuMedian cpuP95 allocatedMedian
+    static Map<String, Timing> loadBaseline(Path path) throws IOException {
+        var baseline = new HashMap<String, Timing>();
+        for (var line : Files.readAllLines(path)) {
+            var fields = line.trim().split("\\s+");
+            if (fields.length != 6)
+                continue;
+            var timing = new Timing();
+            timing.wallMedian = Long.parseLong(fields[1]);
+            timing.wallP95 = Long.parseLong(fields[2]);
+            timing.cpuMedian = Long.parseLong(fields[3]);
+            timing.cpuP95 = Long.parseLong(fields[4]);
+            timing.allocatedMedian = Long.parseLong(fields[5]);
+            baseline.put(fields[0], timing);
+        }
+        return baseline;
+    }
+
+    static void saveBaseline(Path path, Map<String, Timing> timings) throws IOException {
+        try (var out = new PrintWriter(Files.newBufferedWriter(path))) {
+            for (var entry : new TreeMap<>(timings).entrySet()) {
+                var t = entry.getValue();
+                out.println(entry.getKey() + " " + t.wallMedian + " " + t.wallP95 + " "
+                        + t.cpuMedian + " " + t.cpuP95 + " " + t.allocatedMedian);
+            }
+        }
+    }
+}
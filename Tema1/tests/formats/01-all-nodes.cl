@@ -0,0 +1,27 @@
+class Main inherits IO {
+    count : Int <- 0;
+    name : String;
+    flag : Bool <- true;
+
+    main() : Object {
+        {
+            out_string("Hello\n");
+            count <- (1 + 2) * 3 - 4 / ~5;
+            if count < 10 then flag <- not flag else flag <- count <= 20 fi;
+            while isvoid name loop name <- "x" pool;
+            self@IO.out_int(count);
+            let a : Int <- count, b : Main in b.scale(a, 2);
+            case new Main of
+                m : Main => m;
+                o : Object => count = 0;
+            esac;
+        }
+    };
+
+    scale(x : Int, factor : Int) : Int {
+        x * factor
+    };
+};
+
+class Empty {
+};
@@ -0,0 +1,7 @@
+class A {
+    s1 : String <- "tab\tnewline\nquote\"back\\slash";
+    s2 : String <- "continued\
+line";
+    s3 : String <- "form\ffeed\bback";
+    s4 : String <- "rawcontrolchars";
+};
@@ -0,0 +1,3 @@
+class A {
+    f() : Int { 1 + };
+};